@@ -1,7 +1,6 @@
 package filesharing.main;
 
 import filesharing.settings.SettingsTab;
-import filesharing.sync.SyncTab;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.control.TabPane;
@@ -14,10 +13,11 @@ public class App extends Application {
     public void start(Stage primaryStage) {
         instance = this;
         TabPane tabPane = new TabPane();
+        MainWindow mainWindow = new MainWindow();
         tabPane.getTabs().addAll(
-                new MainWindow().createTab(),
+                mainWindow.createTab(),
                 new SettingsTab().createTab(),
-                new SyncTab().createTab()
+                mainWindow.createSyncTab()
         );
         Scene scene = new Scene(tabPane, 600, 400);
         scene.getStylesheets().add(getClass().getResource("/style.css").toExternalForm());
@@ -0,0 +1,93 @@
+package filesharing.sync;
+
+import filesharing.main.DigestService;
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+public class ContentDefinedChunker {
+    static final int MIN_CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_CHUNK_SIZE = 256 * 1024;
+    private static final int READ_BLOCK_SIZE = 1024 * 1024;
+    // 16 mask bits -> 64 KB average chunks; high bits depend on the last 64 bytes of input
+    private static final long CUT_MASK = 0xFFFFL << 48;
+    // Fixed seed: every peer must derive the same gear table or chunk boundaries will never line up
+    private static final long[] GEAR = buildGearTable(0x5EED_CDC1L);
+
+    public static class Chunk {
+        public final long offset;
+        public final int length;
+        public final byte[] hash;
+
+        public Chunk(long offset, int length, byte[] hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    public static class ChunkedFile {
+        public final long size;
+        public final List<Chunk> chunks;
+        public final byte[] fileHash;
+
+        public ChunkedFile(long size, List<Chunk> chunks, byte[] fileHash) {
+            this.size = size;
+            this.chunks = chunks;
+            this.fileHash = fileHash;
+        }
+    }
+
+    public ChunkedFile chunk(File file) throws IOException {
+        MessageDigest chunkDigest = DigestService.newSha256();
+        MessageDigest fileDigest = DigestService.newSha256();
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] chunkBuffer = new byte[MAX_CHUNK_SIZE];
+        byte[] block = new byte[READ_BLOCK_SIZE];
+        int chunkLength = 0;
+        long offset = 0;
+        long hash = 0;
+        // The gear hash runs over each block in place; bytes are copied into the chunk buffer a run at a time
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(block)) != -1) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    hash = (hash << 1) + GEAR[block[i] & 0xFF];
+                    int length = chunkLength + i + 1 - start;
+                    boolean cut = length >= MIN_CHUNK_SIZE && (hash & CUT_MASK) == 0;
+                    if (cut || length == MAX_CHUNK_SIZE) {
+                        System.arraycopy(block, start, chunkBuffer, chunkLength, i + 1 - start);
+                        chunks.add(finishChunk(chunkBuffer, length, offset, chunkDigest, fileDigest));
+                        offset += length;
+                        chunkLength = 0;
+                        hash = 0;
+                        start = i + 1;
+                    }
+                }
+                System.arraycopy(block, start, chunkBuffer, chunkLength, read - start);
+                chunkLength += read - start;
+            }
+        }
+        if (chunkLength > 0) {
+            chunks.add(finishChunk(chunkBuffer, chunkLength, offset, chunkDigest, fileDigest));
+            offset += chunkLength;
+        }
+        return new ChunkedFile(offset, chunks, fileDigest.digest());
+    }
+
+    private Chunk finishChunk(byte[] buffer, int length, long offset, MessageDigest chunkDigest, MessageDigest fileDigest) {
+        chunkDigest.update(buffer, 0, length);
+        fileDigest.update(buffer, 0, length);
+        return new Chunk(offset, length, chunkDigest.digest());
+    }
+
+    private static long[] buildGearTable(long seed) {
+        Random random = new Random(seed);
+        long[] table = new long[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = random.nextLong();
+        }
+        return table;
+    }
+}
\ No newline at end of file
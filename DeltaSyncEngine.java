@@ -0,0 +1,272 @@
+package filesharing.sync;
+
+import filesharing.main.BlockCompressor;
+import filesharing.main.BlockDecompressor;
+import filesharing.main.DatabaseManager;
+import filesharing.main.DeviceManager;
+import filesharing.main.DigestService;
+import filesharing.main.FileTransferManager;
+import filesharing.main.SecurityManager;
+import filesharing.main.SqliteDatabase;
+import filesharing.sync.ContentDefinedChunker.Chunk;
+import filesharing.sync.ContentDefinedChunker.ChunkedFile;
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.sql.*;
+import java.util.*;
+
+public class DeltaSyncEngine {
+    private static final SqliteDatabase syncDb = SqliteDatabase.get(DatabaseManager.STORE_DB);
+    private static final int HASH_LENGTH = 32;
+    // Bounds the recipe a peer can make us hold in memory, whatever file size it claims
+    private static final int MAX_CHUNK_COUNT = 1 << 20;
+    private final DeviceManager deviceManager;
+    private final SecurityManager securityManager;
+    private final FileTransferManager fileTransferManager;
+    private final DatabaseManager databaseManager;
+    private final ContentDefinedChunker chunker = new ContentDefinedChunker();
+
+    public DeltaSyncEngine(DeviceManager deviceManager, SecurityManager securityManager, FileTransferManager fileTransferManager,
+                           DatabaseManager databaseManager) {
+        this.deviceManager = deviceManager;
+        this.securityManager = securityManager;
+        this.fileTransferManager = fileTransferManager;
+        this.databaseManager = databaseManager;
+        deviceManager.registerConnectionHandler("SYNC_DELTA", (uuid, dis, dos) -> receiveDelta(uuid, dis, dos, false));
+        deviceManager.registerConnectionHandler("SYNC_DELTA_Z", (uuid, dis, dos) -> receiveDelta(uuid, dis, dos, true));
+    }
+
+    // Chunks the file once per change; the index is reused for every peer and for repeated watch events
+    public ChunkedFile index(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long modified = file.lastModified();
+        ChunkedFile cached = loadIndex(path, file.length(), modified);
+        if (cached != null) return cached;
+        ChunkedFile chunked = chunker.chunk(file);
+        storeIndex(path, modified, chunked);
+        return chunked;
+    }
+
+    // SYNC_DELTA sends missing chunks as raw bytes; SYNC_DELTA_Z frames them as compressor blocks
+    // and is only used when the peer advertises deflate
+    public long sendDelta(File file, ChunkedFile chunked, String address) throws Exception {
+        boolean compress = fileTransferManager.isCompressTransfers() && deviceManager.supportsCompression(address);
+        try (var channel = deviceManager.openChannel(address, "FILE")) {
+            var dos = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream(), 64 * 1024));
+            var dis = new DataInputStream(channel.getInputStream());
+            dos.writeUTF(deviceManager.getUserUUID());
+            dos.writeUTF(compress ? "SYNC_DELTA_Z" : "SYNC_DELTA");
+            dos.writeUTF(file.getName());
+            dos.writeLong(chunked.size);
+            dos.write(chunked.fileHash);
+            dos.writeInt(chunked.chunks.size());
+            for (Chunk chunk : chunked.chunks) {
+                dos.writeInt(chunk.length);
+                dos.write(chunk.hash);
+            }
+            dos.flush();
+
+            int missingCount = dis.readInt();
+            int[] missing = new int[missingCount];
+            for (int i = 0; i < missingCount; i++) {
+                missing[i] = dis.readInt();
+            }
+
+            // CDC chunks never exceed the block size, so each missing chunk is one compressor block
+            long bytesSent = 0;
+            try (var raf = new RandomAccessFile(file, "r");
+                 var compressor = new BlockCompressor(file.getName(), compress)) {
+                byte[] buffer = new byte[BlockCompressor.MAX_BLOCK_SIZE];
+                for (int index : missing) {
+                    Chunk chunk = chunked.chunks.get(index);
+                    raf.seek(chunk.offset);
+                    raf.readFully(buffer, 0, chunk.length);
+                    if (compress) {
+                        compressor.writeBlock(dos, buffer, chunk.length);
+                    } else {
+                        dos.write(buffer, 0, chunk.length);
+                        bytesSent += chunk.length;
+                    }
+                }
+                if (compress) bytesSent = compressor.getWireBytes();
+            }
+            dos.flush();
+            if (!dis.readBoolean()) {
+                throw new IOException("Peer rejected delta for " + file.getName());
+            }
+            return bytesSent;
+        }
+    }
+
+    private void receiveDelta(String uuid, DataInputStream dis, DataOutputStream dos, boolean compressed) throws IOException {
+        if (databaseManager.isFileBlocked(uuid)) return;
+        String fileName = new File(dis.readUTF()).getName();
+        long fileSize = dis.readLong();
+        byte[] expectedFileHash = new byte[HASH_LENGTH];
+        dis.readFully(expectedFileHash);
+        int chunkCount = dis.readInt();
+        // Every chunk but the last is at least MIN_CHUNK_SIZE, so a larger count is not a real recipe
+        if (fileSize < 0 || chunkCount < 0 || chunkCount > MAX_CHUNK_COUNT
+                || chunkCount > fileSize / ContentDefinedChunker.MIN_CHUNK_SIZE + 1) {
+            throw new IOException("Invalid chunk count " + chunkCount + " for " + fileSize + " bytes");
+        }
+        // The lists grow with what actually arrives, and the lengths may never add up past the claimed size
+        List<Integer> lengths = new ArrayList<>();
+        List<byte[]> hashes = new ArrayList<>();
+        long recipeSize = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int length = dis.readInt();
+            if (length < 0 || length > BlockCompressor.MAX_BLOCK_SIZE) throw new IOException("Invalid chunk length: " + length);
+            recipeSize += length;
+            if (recipeSize > fileSize) throw new IOException("Recipe exceeds " + fileSize + " bytes");
+            byte[] hash = new byte[HASH_LENGTH];
+            dis.readFully(hash);
+            lengths.add(length);
+            hashes.add(hash);
+        }
+
+        File saveDir = new File(fileTransferManager.getSavePath());
+        if (!saveDir.exists()) saveDir.mkdirs();
+        File target = new File(saveDir, fileName);
+
+        // Local chunks we can reuse, keyed by content hash
+        Map<String, Chunk> localChunks = new HashMap<>();
+        if (target.isFile()) {
+            for (Chunk chunk : index(target).chunks) {
+                localChunks.putIfAbsent(Base64.getEncoder().encodeToString(chunk.hash), chunk);
+            }
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (!localChunks.containsKey(Base64.getEncoder().encodeToString(hashes.get(i)))) {
+                missing.add(i);
+            }
+        }
+        dos.writeInt(missing.size());
+        for (int index : missing) {
+            dos.writeInt(index);
+        }
+        dos.flush();
+
+        // Rebuild the file in recipe order: reused chunks come from the old copy, the rest from the wire
+        File temp = new File(saveDir, fileName + ".sync.tmp");
+        MessageDigest fileDigest = DigestService.newSha256();
+        MessageDigest chunkDigest = DigestService.newSha256();
+        List<Chunk> rebuilt = new ArrayList<>(chunkCount);
+        boolean valid = true;
+        try {
+            try (var out = new BufferedOutputStream(new FileOutputStream(temp), 256 * 1024);
+                 var local = target.isFile() ? new RandomAccessFile(target, "r") : null;
+                 var decompressor = new BlockDecompressor()) {
+                byte[] buffer = new byte[BlockCompressor.MAX_BLOCK_SIZE];
+                long offset = 0;
+                int nextMissing = 0;
+                for (int i = 0; i < chunkCount; i++) {
+                    int length = lengths.get(i);
+                    byte[] hash = hashes.get(i);
+                    if (nextMissing < missing.size() && missing.get(nextMissing) == i) {
+                        if (!compressed) {
+                            dis.readFully(buffer, 0, length);
+                        } else if (decompressor.readBlock(dis, buffer) != length) {
+                            throw new IOException("Chunk length mismatch at " + i);
+                        }
+                        nextMissing++;
+                    } else {
+                        Chunk source = localChunks.get(Base64.getEncoder().encodeToString(hash));
+                        local.seek(source.offset);
+                        local.readFully(buffer, 0, length);
+                    }
+                    chunkDigest.update(buffer, 0, length);
+                    valid &= MessageDigest.isEqual(chunkDigest.digest(), hash);
+                    fileDigest.update(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                    rebuilt.add(new Chunk(offset, length, hash));
+                    offset += length;
+                }
+                valid &= offset == fileSize;
+            }
+            byte[] fileHash = fileDigest.digest();
+            valid &= MessageDigest.isEqual(fileHash, expectedFileHash);
+            if (valid) {
+                if (target.exists()) {
+                    String versionedName = fileName + ".v" + System.currentTimeMillis();
+                    Files.copy(target.toPath(), new File(saveDir, versionedName).toPath());
+                    databaseManager.logFileVersion(fileName, versionedName, target.length(), DigestService.toHex(fileHash));
+                }
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                storeIndex(target.getAbsolutePath(), target.lastModified(), new ChunkedFile(fileSize, rebuilt, fileHash));
+                logSync(fileName, "수신");
+            }
+        } finally {
+            // Rejected or interrupted rebuilds never leave a partial file behind
+            Files.deleteIfExists(temp.toPath());
+        }
+        dos.writeBoolean(valid);
+        dos.flush();
+    }
+
+    private ChunkedFile loadIndex(String path, long size, long modified) {
+        try (Connection conn = syncDb.reader()) {
+            PreparedStatement fileStmt = conn.prepareStatement("SELECT hash FROM sync_files WHERE path = ? AND size = ? AND modified = ?");
+            fileStmt.setString(1, path);
+            fileStmt.setLong(2, size);
+            fileStmt.setLong(3, modified);
+            ResultSet rs = fileStmt.executeQuery();
+            if (!rs.next()) return null;
+            byte[] fileHash = rs.getBytes("hash");
+            PreparedStatement chunkStmt = conn.prepareStatement("SELECT offset, length, hash FROM sync_chunks WHERE path = ? ORDER BY chunk_index");
+            chunkStmt.setString(1, path);
+            rs = chunkStmt.executeQuery();
+            List<Chunk> chunks = new ArrayList<>();
+            while (rs.next()) {
+                chunks.add(new Chunk(rs.getLong("offset"), rs.getInt("length"), rs.getBytes("hash")));
+            }
+            return new ChunkedFile(size, chunks, fileHash);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void storeIndex(String path, long modified, ChunkedFile chunked) {
+        try (Connection conn = syncDb.writer()) {
+            conn.setAutoCommit(false);
+            PreparedStatement delete = conn.prepareStatement("DELETE FROM sync_chunks WHERE path = ?");
+            delete.setString(1, path);
+            delete.executeUpdate();
+            PreparedStatement insert = conn.prepareStatement("INSERT INTO sync_chunks (path, chunk_index, offset, length, hash) VALUES (?, ?, ?, ?, ?)");
+            for (int i = 0; i < chunked.chunks.size(); i++) {
+                Chunk chunk = chunked.chunks.get(i);
+                insert.setString(1, path);
+                insert.setInt(2, i);
+                insert.setLong(3, chunk.offset);
+                insert.setInt(4, chunk.length);
+                insert.setBytes(5, chunk.hash);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            PreparedStatement file = conn.prepareStatement("INSERT OR REPLACE INTO sync_files (path, size, modified, hash) VALUES (?, ?, ?, ?)");
+            file.setString(1, path);
+            file.setLong(2, chunked.size);
+            file.setLong(3, modified);
+            file.setBytes(4, chunked.fileHash);
+            file.executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void logSync(String fileName, String action) {
+        try (Connection conn = syncDb.writer()) {
+            PreparedStatement pstmt = conn.prepareStatement("INSERT INTO sync_log (file_name, action, timestamp) VALUES (?, ?, ?)");
+            pstmt.setString(1, fileName);
+            pstmt.setString(2, action);
+            pstmt.setString(3, new java.util.Date().toString());
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
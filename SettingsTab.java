@@ -7,7 +7,6 @@ import filesharing.settings.SupportedTheme;
 import java.io.*;
 import java.net.Socket;
 import java.nio.file.*;
-import java.security.MessageDigest;
 import java.security.PublicKey;
 import java.util.*;
 import java.util.concurrent.*;
@@ -16,12 +15,11 @@ import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 public class SettingsTab {
-    private static boolean notificationsEnabled = true;
-    private static String notificationSoundPath = "notification.wav";
     private static final String MAIN_DEVELOPER_ID = "main_dev_uuid";
     private final DeviceManager deviceManager;
     private final FileTransferManager fileTransferManager;
@@ -142,6 +140,54 @@ public class SettingsTab {
             }
         });
 
+        // Restore from the incremental backups; replaying can take a while, so it runs off the FX thread
+        Button restoreBackupButton = new Button(getResourceString("restore_backup"));
+        restoreBackupButton.getStyleClass().add("action-button");
+        restoreBackupButton.setOnAction(e -> {
+            DirectoryChooser directoryChooser = new DirectoryChooser();
+            File backupDir = new File(fileTransferManager.getSavePath(), "backups");
+            if (backupDir.isDirectory()) directoryChooser.setInitialDirectory(backupDir);
+            File dir = directoryChooser.showDialog(null);
+            if (dir == null) return;
+            restoreBackupButton.setDisable(true);
+            Thread restoreThread = new Thread(() -> {
+                try {
+                    IncrementalBackup.RestoreResult result = databaseManager.restoreBackup(dir);
+                    databaseManager.logActivity(deviceManager.getUserUUID(), "Backup restored: " + dir.getPath()
+                            + " (" + result.restored + " rows, " + result.skipped + " skipped)");
+                    notify(getResourceString("backup_restored") + " " + result.restored + ", "
+                            + getResourceString("backup_skipped") + " " + result.skipped);
+                } catch (Exception ex) {
+                    notify("Restore error: " + ex.getMessage());
+                } finally {
+                    Platform.runLater(() -> restoreBackupButton.setDisable(false));
+                }
+            }, "backup-restore");
+            restoreThread.setDaemon(true);
+            restoreThread.start();
+        });
+
+        // Log Retention, per log table; 0 keeps a table forever
+        Label retentionLabel = new Label(getResourceString("log_retention"));
+        ComboBox<String> retentionTableCombo = new ComboBox<>();
+        retentionTableCombo.getItems().addAll("activities", "transfers", "downloads");
+        retentionTableCombo.setValue("activities");
+        TextField retentionDaysField = new TextField(String.valueOf(databaseManager.getRetentionDays("activities")));
+        retentionTableCombo.setOnAction(e ->
+                retentionDaysField.setText(String.valueOf(databaseManager.getRetentionDays(retentionTableCombo.getValue()))));
+        Button applyRetentionButton = new Button(getResourceString("apply_retention"));
+        applyRetentionButton.getStyleClass().add("action-button");
+        applyRetentionButton.setOnAction(e -> {
+            try {
+                long days = Long.parseLong(retentionDaysField.getText().trim());
+                if (days < 0) throw new NumberFormatException();
+                databaseManager.setRetentionDays(retentionTableCombo.getValue(), days);
+                notify(getResourceString("retention_applied") + " " + retentionTableCombo.getValue() + " " + days);
+            } catch (NumberFormatException ex) {
+                notify(getResourceString("invalid_retention"));
+            }
+        });
+
         // Save Path Settings
         Label savePathLabel = new Label(getResourceString("save_path"));
         TextField savePathField = new TextField(fileTransferManager.getPath());
@@ -159,10 +205,10 @@ public class SettingsTab {
 
         // Notification Settings
         CheckBox notificationCheckBox = new CheckBox(getResourceString("enable_notifications"));
-        notificationCheckBox.setSelected(notificationsEnabled);
+        notificationCheckBox.setSelected(ChatManager.isNotificationsEnabled());
         notificationCheckBox.setOnAction(e -> {
-            NotificationsEnabled = notificationCheckBox.isSelected();
-            notify(getResourceString(notificationsEnabled ? "notifications_enabled" : "notifications_disabled"));
+            ChatManager.setNotificationsEnabled(notificationCheckBox.isSelected());
+            notify(getResourceString(notificationCheckBox.isSelected() ? "notifications_enabled" : "notifications_disabled"));
         });
 
         Button notificationSoundButton = new Button(getResourceString("choose_notification_sound"));
@@ -172,7 +218,7 @@ public class SettingsTab {
             fileChooser.getExtensionFilters().add(new FileChooser().ExtensionFilter("Files", "*.wav", "*.mp3"));
             File file filth = fileChooser.showOpenDialog(null);
             if (file != null) {
-                notificationSoundPath = file.getAbsolutePath();
+                ChatManager.setNotificationSoundPath(file.getAbsolutePath());
                 notify(getResourceString("notification_sound_updated"));
             }
         });
@@ -214,6 +260,8 @@ public class SettingsTab {
                 new HBox(10, languageLabel, languageCombo, applyLanguageButton),
                 new HBox(10, 10, themeLabel, themeCombo, applyThemeButton),
                 logBackup,
+                restoreBackupButton,
+                new HBox(10, retentionLabel, retentionTableCombo, retentionDaysField, applyRetentionButton),
                 new HBox(10, savePathLabel, savePathField, chooseSavePathButton),
                 notificationCheckBox,
                 notificationSoundButton,
@@ -240,10 +288,9 @@ public class SettingsTab {
                     }
                     String targetDevice = deviceManager.getDiscoveredDevices().keySet().iterator().next();
                     String address = deviceManager.getDiscoveredDevices().get(targetDevice);
-                    try (var socket = securityManager.createSSLSocket(address, 12345)) {
-                        socket.startHandshake();
-                        try (var dos = new DataOutputStream(socket.getOutputStream());
-                             var dis = new DataInputStream(socket.getInputStream())) {
+                    try (var channel = deviceManager.openChannel(address, "UPDATE")) {
+                        try (var dos = new DataOutputStream(channel.getOutputStream());
+                             var dis = new DataInputStream(channel.getInputStream())) {
                             dos.writeUTF("UPDATE_CHECK");
                             String response = dis.readUTF();
                             Map<String, String> metadata = parseUpdateResponse(response);
@@ -439,14 +486,7 @@ public class SettingsTab {
 
     private boolean verifyFileIntegrity(File file) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int read;
-                while ((read = fis.read(buffer)) != -1) {
-                    digest.update(buffer, 0, read);
-                }
-            }
+            DigestService.hashFile(file.toPath());
             // Compare with stored hash (assumed to be stored elsewhere)
             return true; // Placeholder
         } catch (Exception e) {
@@ -455,11 +495,11 @@ public class SettingsTab {
     }
 
     public static boolean isNotificationsEnabled() {
-        return notificationsEnabled;
+        return ChatManager.isNotificationsEnabled();
     }
 
     public static String getNotificationSoundPath() {
-        return notificationSoundPath;
+        return ChatManager.getNotificationSoundPath();
     }
 
     private String getResourceString(String key) {
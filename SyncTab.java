@@ -1,18 +1,39 @@
 package filesharing.sync;
 
-import filesharing.main.MainWindow;
+import filesharing.main.DatabaseManager;
+import filesharing.main.DeviceManager;
+import filesharing.main.DigestService;
+import filesharing.main.FileTransferManager;
+import filesharing.main.LogPager;
+import filesharing.main.SecurityManager;
+import filesharing.main.SqliteDatabase;
 import javafx.application.Platform;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.sql.*;
 import java.util.*;
+import java.util.Date;
 
 public class SyncTab {
-    private static final String SYNC_DB_URL = "jdbc:sqlite:sync_log.db";
+    private static final SqliteDatabase syncDb = SqliteDatabase.get(DatabaseManager.STORE_DB);
+    private final DeviceManager deviceManager;
+    private final SecurityManager securityManager;
+    private final DeltaSyncEngine deltaSyncEngine;
     private TextArea syncLogArea;
 
+    public SyncTab(DeviceManager deviceManager, SecurityManager securityManager, FileTransferManager fileTransferManager,
+                   DatabaseManager databaseManager) {
+        this.deviceManager = deviceManager;
+        this.securityManager = securityManager;
+        this.deltaSyncEngine = new DeltaSyncEngine(deviceManager, securityManager, fileTransferManager, databaseManager);
+    }
+
     public Tab createTab() {
         Tab tab = new Tab(getResourceString("sync_tab"));
         tab.setClosable(false);
@@ -31,7 +52,6 @@ public class SyncTab {
         startSyncButton.setOnAction(e -> startSync());
         viewSyncLogButton.setOnAction(e -> viewSyncLog());
 
-        initSyncDatabase();
         return tab;
     }
 
@@ -39,22 +59,11 @@ public class SyncTab {
         return ResourceBundle.getBundle("messages", Locale.getDefault()).getString(key);
     }
 
-    private void initSyncDatabase() {
-        try (Connection conn = DriverManager.getConnection(SYNC_DB_URL)) {
-            String sql = "CREATE TABLE IF NOT EXISTS sync_folders (path TEXT PRIMARY KEY)";
-            conn.createStatement().execute(sql);
-            sql = "CREATE TABLE IF NOT EXISTS sync_log (id INTEGER PRIMARY KEY AUTOINCREMENT, file_name TEXT, action TEXT, timestamp TEXT)";
-            conn.createStatement().execute(sql);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
     private void addSyncFolder() {
         DirectoryChooser dirChooser = new DirectoryChooser();
         File dir = dirChooser.showDialog(null);
         if (dir != null) {
-            try (Connection conn = DriverManager.getConnection(SYNC_DB_URL)) {
+            try (Connection conn = syncDb.writer()) {
                 String sql = "INSERT OR IGNORE INTO sync_folders (path) VALUES (?)";
                 PreparedStatement pstmt = conn.prepareStatement(sql);
                 pstmt.setString(1, dir.getAbsolutePath());
@@ -68,7 +77,7 @@ public class SyncTab {
 
     private void startSync() {
         List<String> syncFolders = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(SYNC_DB_URL)) {
+        try (Connection conn = syncDb.reader()) {
             ResultSet rs = conn.createStatement().executeQuery("SELECT path FROM sync_folders");
             while (rs.next()) {
                 syncFolders.add(rs.getString("path"));
@@ -104,52 +113,69 @@ public class SyncTab {
     }
 
     private void syncFile(File file) {
-        MainWindow mainWindow = new MainWindow();
-        Map<String, String> devices = mainWindow.getDiscoveredDevices();
-        devices.forEach((name, address) -> {
-            try (SSLSocket socket = (SSLSocket) MainWindow.sslContext.getSocketFactory().createSocket(address, 12345)) {
-                socket.startHandshake();
-                DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-                FileInputStream fis = new FileInputStream(file);
-                FileChannel inChannel = fis.getChannel();
-
-                MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                try (FileInputStream hashFis = new FileInputStream(file)) {
-                    byte[] buffer = new byte[8192];
-                    int count;
-                    while ((count = hashFis.read(buffer)) > 0) {
-                        digest.update(buffer, 0, count);
-                    }
-                }
-                String fileHash = MainWindow.bytesToHex(digest.digest());
-                String metadata = String.format("Size: %d bytes, Modified: %s", file.length(), new Date(file.lastModified()));
-
-                dos.writeUTF(MainWindow.userUUID);
-                dos.writeUTF("FILE");
-                dos.writeUTF(file.getName());
-                dos.writeLong(file.length());
-                dos.writeUTF(metadata);
-                dos.writeUTF(fileHash);
-                dos.writeUTF("sync");
-
-                ByteBuffer buffer = ByteBuffer.allocate(8192);
-                while (inChannel.read(buffer) != -1) {
-                    buffer.flip();
-                    dos.write(buffer.array(), 0, buffer.limit());
-                    buffer.clear();
+        if (!file.isFile() || file.getName().endsWith(".sync.tmp")) return;
+        ContentDefinedChunker.ChunkedFile chunked;
+        try {
+            chunked = deltaSyncEngine.index(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        deviceManager.getDiscoveredDevices().forEach((name, address) -> {
+            try {
+                long sent;
+                try {
+                    sent = deltaSyncEngine.sendDelta(file, chunked, address);
+                } catch (EOFException e) {
+                    // Peer predates SYNC_DELTA and closed the connection; fall back to a full send
+                    sendFullFile(file, address);
+                    sent = file.length();
                 }
-                inChannel.close();
-                fis.close();
+                long bytesSent = sent;
                 logSync(file.getName(), "전송");
-                Platform.runLater(() -> syncLogArea.appendText(getResourceString("file_synced") + file.getName() + " to " + name + "\n"));
+                Platform.runLater(() -> syncLogArea.appendText(getResourceString("file_synced") + file.getName() + " to " + name
+                        + " (" + bytesSent + "/" + chunked.size + " bytes)\n"));
             } catch (Exception e) {
                 e.printStackTrace();
             }
         });
     }
 
+    private void sendFullFile(File file, String address) throws Exception {
+        try (var channel = deviceManager.openChannel(address, "FILE")) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream(), 64 * 1024));
+            FileChannel inChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+            String metadata = String.format("Size: %d bytes, Modified: %s", file.length(), new Date(file.lastModified()));
+
+            // FILE_T: the hash is computed while streaming and sent as a trailer
+            dos.writeUTF(deviceManager.getUserUUID());
+            dos.writeUTF("FILE_T");
+            dos.writeUTF(file.getName());
+            dos.writeLong(file.length());
+            dos.writeUTF(metadata);
+            dos.writeUTF("sync");
+
+            MessageDigest digest = DigestService.sha256();
+            // SSLSocket needs byte[] writes, so the buffer stays on-heap; sized to fill the output buffer in one read
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long remaining = file.length();
+            while (remaining > 0 && inChannel.read(buffer) != -1) {
+                buffer.flip();
+                int count = (int) Math.min(buffer.limit(), remaining);
+                digest.update(buffer.array(), 0, count);
+                dos.write(buffer.array(), 0, count);
+                remaining -= count;
+                buffer.clear();
+            }
+            dos.writeUTF(securityManager.bytesToHex(digest.digest()));
+            dos.flush();
+            inChannel.close();
+        }
+    }
+
     private void logSync(String fileName, String action) {
-        try (Connection conn = DriverManager.getConnection(SYNC_DB_URL)) {
+        try (Connection conn = syncDb.writer()) {
             String sql = "INSERT INTO sync_log (file_name, action, timestamp) VALUES (?, ?, ?)";
             PreparedStatement pstmt = conn.prepareStatement(sql);
             pstmt.setString(1, fileName);
@@ -163,18 +189,18 @@ public class SyncTab {
 
     private void viewSyncLog() {
         ListView<String> logView = new ListView<>();
-        try (Connection conn = DriverManager.getConnection(SYNC_DB_URL)) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM sync_log");
-            while (rs.next()) {
-                logView.getItems().add(String.format("%s: %s at %s",
-                        rs.getString("action"), rs.getString("file_name"), rs.getString("timestamp")));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        LogPager pager = new LogPager(syncDb, "sync_log", null);
+        TextField fileFilter = new TextField();
+        fileFilter.setPromptText(getResourceString("filter_file"));
+        fileFilter.setOnAction(e -> {
+            pager.clearFilters().whereContains("file_name", fileFilter.getText().trim());
+            pager.reload();
+        });
+        pager.attach(logView, rs -> String.format("%s: %s at %s",
+                rs.getString("action"), rs.getString("file_name"), rs.getString("timestamp")));
         Stage logStage = new Stage();
         logStage.setTitle(getResourceString("sync_log"));
-        logStage.setScene(new Scene(new VBox(new Label(getResourceString("sync_log")), logView), 400, 300));
+        logStage.setScene(new Scene(new VBox(new Label(getResourceString("sync_log")), fileFilter, logView), 400, 300));
         logStage.show();
     }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+
+// The hourly incremental backup: 10k new rows on top of a 1M-row table that has already been backed up once
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BackupBenchmark {
+    private static final int BASE_ROWS = 1_000_000;
+    private static final int NEW_ROWS = 10_000;
+    private static final String SCHEMA = "CREATE TABLE transfers (id INTEGER PRIMARY KEY, file_name TEXT, type TEXT, "
+            + "size INTEGER, timestamp INTEGER, metadata TEXT, peer TEXT)";
+
+    private Path workDir;
+    private SqliteDatabase database;
+    private IncrementalBackup backup;
+    private int nextRow;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("backup-benchmark");
+        database = SqliteDatabase.get(workDir.resolve("backup-benchmark.db").toString());
+        try (Connection conn = database.writer()) {
+            conn.createStatement().execute(SCHEMA);
+        }
+        insertRows(BASE_ROWS);
+        backup = new IncrementalBackup(workDir.resolve("backups").toFile());
+        backup.addTable("transfers", database, "id", "file_name", "type", "size", "timestamp", "metadata", "peer");
+        backup.backup();
+    }
+
+    @Setup(Level.Invocation)
+    public void addRows() throws SQLException {
+        insertRows(NEW_ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SqliteDatabase.release(workDir.resolve("backup-benchmark.db").toString());
+        BenchmarkSupport.deleteTree(workDir);
+    }
+
+    @Benchmark
+    public File incrementalBackup() throws Exception {
+        return backup.backup();
+    }
+
+    private void insertRows(int count) throws SQLException {
+        try (Connection conn = database.writer();
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "INSERT INTO transfers (file_name, type, size, timestamp, metadata, peer) VALUES (?, ?, ?, ?, ?, ?)")) {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < count; i++, nextRow++) {
+                pstmt.setString(1, "file-" + nextRow + ".bin");
+                pstmt.setString(2, nextRow % 2 == 0 ? "전송" : "수신");
+                pstmt.setLong(3, nextRow * 1024L);
+                pstmt.setLong(4, System.currentTimeMillis());
+                pstmt.setString(5, "Size: " + nextRow * 1024L + " bytes");
+                pstmt.setString(6, "peer-" + nextRow % 50);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+        }
+    }
+}
\ No newline at end of file
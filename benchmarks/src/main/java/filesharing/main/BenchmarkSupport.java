@@ -0,0 +1,91 @@
+package filesharing.main;
+
+import javafx.application.Platform;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+final class BenchmarkSupport {
+    static final String LOOPBACK = "127.0.0.1";
+    static final int SERVER_PORT = 12345;
+    private static final long SERVER_START_TIMEOUT_MS = 10000;
+    private static final long SEED = 42;
+
+    private BenchmarkSupport() {
+    }
+
+    // Transfer and chat code finish on Platform.runLater; Monocle's headless platform gives them a toolkit
+    // without a display
+    static void startFxToolkit() throws InterruptedException {
+        System.setProperty("glass.platform", "Monocle");
+        System.setProperty("monocle.platform", "Headless");
+        System.setProperty("prism.order", "sw");
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (IllegalStateException e) {
+            // Already running in this fork
+            started.countDown();
+        }
+        started.await();
+    }
+
+    // Incompressible content, so FILE_Z and zip timings are not flattered by repetitive data
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < length; i += 8) {
+            long value = random.nextLong();
+            for (int j = 0; j < 8 && i + j < length; j++) {
+                bytes[i + j] = (byte) (value >>> (j * 8));
+            }
+        }
+        return bytes;
+    }
+
+    static File randomFile(Path path, long size) throws IOException {
+        byte[] block = randomBytes(1024 * 1024);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return path.toFile();
+    }
+
+    // DeviceManager.startServer blocks in its accept loop, so it gets a daemon thread and callers wait for the port
+    static void startServer(DeviceManager deviceManager) throws IOException, InterruptedException {
+        Thread server = new Thread(deviceManager::startServer, "benchmark-server");
+        server.setDaemon(true);
+        server.start();
+        awaitPort(SERVER_PORT);
+    }
+
+    static void awaitPort(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MS;
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(LOOPBACK, port), 100);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw new IOException("Nothing listening on port " + port, e);
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
\ No newline at end of file
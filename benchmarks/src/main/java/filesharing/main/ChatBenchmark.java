@@ -0,0 +1,40 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+// processMessage runs on every sent and received chat; the emoji map comes from emojis.txt in the working directory
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatBenchmark {
+    @Param({"short", "emoji", "long"})
+    public String shape;
+
+    private ChatManager chatManager;
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // processMessage touches only the shared emoji map
+        chatManager = new ChatManager(null, null, null);
+        switch (shape) {
+            case "short":
+                message = "see you at five";
+                break;
+            case "emoji":
+                message = "thanks :smile: see you at five :thumbsup: :heart:";
+                break;
+            default:
+                message = "a fairly long status message with the odd :star: in it. ".repeat(80);
+        }
+    }
+
+    @Benchmark
+    public String processMessage() {
+        return chatManager.processMessage(message);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+// Uses the real store, filesharing.db in the working directory, so run from a scratch directory.
+// logActivity counts rows committed, not rows queued: each operation appends a batch and waits for the flush.
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+    private static final int ROWS_PER_FLUSH = 1000;
+    private static final int SEED_ROWS = 100_000;
+    private static final String UUID = "00000000-0000-0000-0000-000000000001";
+
+    private DatabaseManager databaseManager;
+    private Repository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        // AsyncLogWriter asks Platform whether it is on the FX thread
+        BenchmarkSupport.startFxToolkit();
+        databaseManager = new DatabaseManager();
+        repository = databaseManager.repository();
+        for (int i = 0; i < SEED_ROWS; i++) {
+            databaseManager.logTransfer("seed-" + i + ".bin", i % 2 == 0 ? "전송" : "수신", i * 1024L, "", "peer-" + (i % 50));
+        }
+        databaseManager.blockUser(UUID, true, false);
+        databaseManager.flushLogs();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(ROWS_PER_FLUSH)
+    public void logActivity() {
+        for (int i = 0; i < ROWS_PER_FLUSH; i++) {
+            databaseManager.logActivity(UUID, "Benchmark activity " + i);
+        }
+        databaseManager.flushLogs();
+    }
+
+    // The lookup every incoming connection makes; 015 indexed it and 016 moved it into memory
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean isFileBlocked() {
+        return databaseManager.isFileBlocked(UUID);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object typeCounts() throws Exception {
+        return repository.typeCounts().get();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object hourlyCounts() throws Exception {
+        return repository.hourlyCounts(System.currentTimeMillis() - 48 * 60 * 60 * 1000L).get();
+    }
+}
\ No newline at end of file
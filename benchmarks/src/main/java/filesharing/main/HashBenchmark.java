@@ -0,0 +1,80 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.nio.file.*;
+import java.security.*;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+// bytesToHex runs once per transfer, chunk and update check; the SHA-256 passes are what every transfer pays per byte.
+// Throughput of the 64 MB passes converts to MB/s as 64 x ops/s; each runs on one thread, so that is per core.
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+    private static final int DATA_SIZE = 64 * 1024 * 1024;
+    // The transfer loops hand the digest one pooled 256 KB buffer at a time
+    private static final int UPDATE_SIZE = 256 * 1024;
+
+    private final SecurityManager securityManager = new SecurityManager();
+    private byte[] digestBytes;
+    private byte[] data;
+    private Path workDir;
+    private File file;
+    private String signature;
+    private PublicKey publicKey;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        digestBytes = MessageDigest.getInstance("SHA-256").digest("benchmark".getBytes());
+        data = BenchmarkSupport.randomBytes(DATA_SIZE);
+        workDir = Files.createTempDirectory("hash-benchmark");
+        file = BenchmarkSupport.randomFile(workDir.resolve("update.jar"), DATA_SIZE);
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(Files.readAllBytes(file.toPath()));
+        signature = Base64.getEncoder().encodeToString(signer.sign());
+        publicKey = keyPair.getPublic();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkSupport.deleteTree(workDir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String bytesToHex() {
+        return securityManager.bytesToHex(digestBytes);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] sha256Memory() throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (int offset = 0; offset < data.length; offset += UPDATE_SIZE) {
+            digest.update(data, offset, UPDATE_SIZE);
+        }
+        return digest.digest();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] hashFile() throws Exception {
+        return DigestService.hashFile(file.toPath());
+    }
+
+    // Streams the file into the signature the same way hashFile feeds a digest
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean verifySignature() {
+        return securityManager.verifySignature(file, signature, publicKey);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.concurrent.*;
+
+// receiveFileInternal fed from a plain loopback socket, with the sender writing in chunks of each size.
+// Shows how the 256 KB pooled receive buffer copes with what actually arrives per read.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReceiveBenchmark {
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+    private static final String FILE_NAME = "received.bin";
+
+    @Param({"8192", "65536", "262144", "1048576"})
+    public int chunkSize;
+
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "benchmark-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Path workDir;
+    private byte[] payload;
+    private String payloadHash;
+    private Socket sendSocket;
+    private Socket receiveSocket;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private FileTransferManager fileTransferManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkSupport.startFxToolkit();
+        workDir = Files.createTempDirectory("receive-benchmark");
+        payload = BenchmarkSupport.randomBytes(FILE_SIZE);
+        SecurityManager securityManager = new SecurityManager();
+        payloadHash = securityManager.bytesToHex(MessageDigest.getInstance("SHA-256").digest(payload));
+        DatabaseManager databaseManager = new DatabaseManager();
+        fileTransferManager = new FileTransferManager(new DeviceManager(), databaseManager, securityManager);
+        fileTransferManager.setSavePath(workDir.toString());
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            sendSocket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            receiveSocket = server.accept();
+        }
+        out = new DataOutputStream(sendSocket.getOutputStream());
+        in = new DataInputStream(receiveSocket.getInputStream());
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeReceived() throws IOException {
+        Files.deleteIfExists(workDir.resolve(FILE_NAME));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.shutdownNow();
+        sendSocket.close();
+        receiveSocket.close();
+        BenchmarkSupport.deleteTree(workDir);
+    }
+
+    // Payload then the FILE_T hash trailer, which receiveFileInternal reads when no header hash is given
+    @Benchmark
+    public void receiveFileInternal() throws Exception {
+        Future<?> sent = sender.submit(() -> {
+            for (int offset = 0; offset < payload.length; offset += chunkSize) {
+                out.write(payload, offset, Math.min(chunkSize, payload.length - offset));
+            }
+            out.writeUTF(payloadHash);
+            out.flush();
+            return null;
+        });
+        fileTransferManager.receiveFileInternal("benchmark", FILE_NAME, FILE_SIZE, "", null, "", false, in, null);
+        sent.get();
+    }
+}
\ No newline at end of file
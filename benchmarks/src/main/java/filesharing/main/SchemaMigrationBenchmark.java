@@ -0,0 +1,150 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// The lookups that 015 indexed, at 10M rows of blocked_users and 10M of chats: "legacy" is a file in the
+// version 1 layout (no keys or indexes, LocalDateTime text timestamps), "migrated" is a copy of it brought to
+// version 2 by the real TRANSFER_SCHEMA and CHAT_SCHEMA steps. Building both takes minutes, so they are kept
+// in the working directory and reused by later runs; the migration time is printed when the copy is made.
+// -p rows=100000 gives a quick run.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaMigrationBenchmark {
+    private static final int CHAT_PEERS = 1000;
+    private static final int INSERT_BATCH = 10_000;
+    private static final int COMMIT_ROWS = 1_000_000;
+    // One chat per second up to this instant, so the last hour is the last 3600 rows
+    private static final LocalDateTime LAST_CHAT = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Param({"10000000"})
+    public int rows;
+
+    @Param({"legacy", "migrated"})
+    public String schema;
+
+    private SqliteDatabase database;
+    private Object lastHour;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File legacy = new File("migration-legacy-" + rows + ".db");
+        if (!legacy.exists()) buildLegacy(legacy);
+        File file = legacy;
+        if (schema.equals("migrated")) {
+            file = new File("migration-v2-" + rows + ".db");
+            if (!file.exists()) buildMigrated(legacy, file);
+        }
+        database = SqliteDatabase.get(file.getPath());
+        LocalDateTime cutoff = LAST_CHAT.minusHours(1);
+        lastHour = schema.equals("migrated")
+                ? (Object) cutoff.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : cutoff.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SqliteDatabase.closeAll();
+    }
+
+    // The query isFileBlocked ran per incoming connection before the policies moved into memory
+    @Benchmark
+    public boolean blockedLookup() throws SQLException {
+        try (Connection conn = database.reader();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT block_files FROM blocked_users WHERE uuid = ?")) {
+            pstmt.setString(1, blockedUuid(random.nextInt(rows)));
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    @Benchmark
+    public int chatsByPeer() throws SQLException {
+        try (Connection conn = database.reader();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM chats WHERE uuid = ?")) {
+            pstmt.setString(1, chatPeer(random.nextInt(CHAT_PEERS)));
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    @Benchmark
+    public int chatsLastHour() throws SQLException {
+        try (Connection conn = database.reader();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM chats WHERE timestamp >= ?")) {
+            pstmt.setObject(1, lastHour);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static String blockedUuid(int index) {
+        return new UUID(0, index).toString();
+    }
+
+    private static String chatPeer(int index) {
+        return new UUID(1, index).toString();
+    }
+
+    // Built under a temporary name so an interrupted build is never mistaken for a finished file
+    private void buildLegacy(File legacy) throws Exception {
+        File building = new File(legacy.getPath() + ".building");
+        Files.deleteIfExists(building.toPath());
+        SqliteDatabase target = SqliteDatabase.get(building.getPath());
+        target.migrate(new String[][]{version(0)});
+        try (Connection conn = target.writer()) {
+            conn.setAutoCommit(false);
+            PreparedStatement blocked = conn.prepareStatement("INSERT INTO blocked_users (uuid, block_files, block_messages) VALUES (?, ?, ?)");
+            PreparedStatement chat = conn.prepareStatement("INSERT INTO chats (uuid, message, type, timestamp) VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < rows; i++) {
+                blocked.setString(1, blockedUuid(i));
+                blocked.setBoolean(2, i % 2 == 0);
+                blocked.setBoolean(3, i % 3 == 0);
+                blocked.addBatch();
+                chat.setString(1, chatPeer(i % CHAT_PEERS));
+                chat.setString(2, "Message " + i + " about the quarterly files");
+                chat.setString(3, i % 2 == 0 ? "sent" : "received");
+                chat.setString(4, LAST_CHAT.minusSeconds(rows - 1 - i).toString());
+                chat.addBatch();
+                if ((i + 1) % INSERT_BATCH == 0 || i == rows - 1) {
+                    blocked.executeBatch();
+                    chat.executeBatch();
+                }
+                if ((i + 1) % COMMIT_ROWS == 0) conn.commit();
+            }
+            conn.commit();
+        }
+        SqliteDatabase.release(building.getPath());
+        Files.move(building.toPath(), legacy.toPath());
+    }
+
+    private void buildMigrated(File legacy, File migrated) throws Exception {
+        File building = new File(migrated.getPath() + ".building");
+        Files.copy(legacy.toPath(), building.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        long start = System.nanoTime();
+        SqliteDatabase.get(building.getPath()).migrate(new String[][]{version(0), version(1)});
+        System.out.printf("Migrated %d blocked_users and %d chats rows to version 2 in %.1f s%n",
+                rows, rows, (System.nanoTime() - start) / 1e9);
+        SqliteDatabase.release(building.getPath());
+        Files.move(building.toPath(), migrated.toPath());
+    }
+
+    // The legacy files kept these modules apart; here one file holds both, so each version runs both steps
+    private static String[] version(int index) {
+        return Stream.concat(Stream.of(DatabaseManager.TRANSFER_SCHEMA[index]), Stream.of(DatabaseManager.CHAT_SCHEMA[index]))
+                .toArray(String[]::new);
+    }
+}
\ No newline at end of file
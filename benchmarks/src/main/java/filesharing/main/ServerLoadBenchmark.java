@@ -0,0 +1,48 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLSocket;
+
+// Connection churn against startServer: every operation is a fresh TLS connection (resumed session), one
+// request and close, so it exercises accept, the bounded connection pool and the per-peer limit.
+// Eight threads stay under the sixteen connections one address may hold.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class ServerLoadBenchmark {
+    private static final String PING = "BENCH_PING";
+
+    private SecurityManager securityManager;
+    private String uuid;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkSupport.startFxToolkit();
+        securityManager = new SecurityManager();
+        DeviceManager deviceManager = new DeviceManager();
+        deviceManager.registerConnectionHandler(PING, (peer, dis, dos) -> {
+            dos.writeBoolean(true);
+            dos.flush();
+        });
+        uuid = deviceManager.getUserUUID();
+        BenchmarkSupport.startServer(deviceManager);
+    }
+
+    @Benchmark
+    public boolean connect() throws IOException {
+        try (SSLSocket socket = securityManager.createSSLSocket(BenchmarkSupport.LOOPBACK, BenchmarkSupport.SERVER_PORT)) {
+            var dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            var dis = new DataInputStream(socket.getInputStream());
+            dos.writeUTF(uuid);
+            dos.writeUTF(PING);
+            dos.flush();
+            return dis.readBoolean();
+        }
+    }
+}
\ No newline at end of file
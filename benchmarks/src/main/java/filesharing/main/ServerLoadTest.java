@@ -0,0 +1,214 @@
+package filesharing.main;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+// Load test for startServer, run as a plain main rather than under JMH because it reports one run's latency
+// distribution and memory. Each simulated client binds its own 127.x.y.z source address, so the server sees
+// it as a separate peer. The spread phase sends thousands of one-shot clients over many peers, keeping
+// every peer under the per-peer limit. The burst phase then holds more connections from one address than
+// that limit allows. Clients share the JVM with the server, so the heap, RSS and thread figures include them.
+//
+//   java -cp benchmarks.jar filesharing.main.ServerLoadTest [clients] [peers] [concurrency] [burst]
+public class ServerLoadTest {
+    private static final String PING = "LOAD_PING";
+    private static final String HOLD = "LOAD_HOLD";
+    private static final long HOLD_MS = 500;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final String BURST_ADDRESS = "127.0.255.1";
+
+    private final SSLSocketFactory factory;
+    private final String uuid;
+
+    private ServerLoadTest(SSLSocketFactory factory, String uuid) {
+        this.factory = factory;
+        this.uuid = uuid;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int peers = args.length > 1 ? Integer.parseInt(args[1]) : 250;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        int burst = args.length > 3 ? Integer.parseInt(args[3]) : 48;
+
+        BenchmarkSupport.startFxToolkit();
+        new SecurityManager();
+        DeviceManager deviceManager = new DeviceManager();
+        deviceManager.registerConnectionHandler(PING, (peer, dis, dos) -> {
+            dos.writeBoolean(true);
+            dos.flush();
+        });
+        deviceManager.registerConnectionHandler(HOLD, (peer, dis, dos) -> {
+            try {
+                Thread.sleep(HOLD_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dos.writeBoolean(true);
+            dos.flush();
+        });
+        BenchmarkSupport.startServer(deviceManager);
+        // SecurityManager's context is the default one, configured from keystore.jks by its constructor
+        ServerLoadTest test = new ServerLoadTest(SSLContext.getDefault().getSocketFactory(), deviceManager.getUserUUID());
+
+        printMemory("before");
+        WorkerSampler sampler = new WorkerSampler();
+        sampler.start();
+
+        long start = System.nanoTime();
+        Phase spread = test.run("spread", clients, concurrency, index -> peerAddress(index % peers), PING);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("spread: %d clients over %d peers, %d at a time, %.0f connections/s%n",
+                clients, peers, concurrency, clients / (elapsed / 1e9));
+        spread.report();
+        System.out.printf("server workers: peak %d%n", sampler.peak());
+        printMemory("after spread");
+
+        sampler.reset();
+        Phase overLimit = test.run("burst", burst, burst, index -> BURST_ADDRESS, HOLD);
+        System.out.printf("burst: %d concurrent clients from %s holding %d ms%n", burst, BURST_ADDRESS, HOLD_MS);
+        overLimit.report();
+        System.out.printf("server workers: peak %d%n", sampler.peak());
+        printMemory("after burst");
+        System.out.printf("server_accepts %d, server_rejects %d%n",
+                MetricsRegistry.counter("server_accepts").get(), MetricsRegistry.counter("server_rejects").get());
+        printHistogram("server_queue_wait", MetricsRegistry.histogram("server_queue_wait_nanos").snapshot());
+        sampler.stop();
+        System.exit(0);
+    }
+
+    // 127.0.0.1 is left for the benchmarks; 127.0.255.0/24 for the burst
+    private static String peerAddress(int peer) {
+        int host = peer + 2;
+        return "127." + (host >> 16 & 0xff) + "." + (host >> 8 & 0xff) + "." + (host & 0xff);
+    }
+
+    private Phase run(String name, int clients, int concurrency, IntFunction<String> source, String type) throws InterruptedException {
+        Phase phase = new Phase(name);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch ready = new CountDownLatch(1);
+        for (int i = 0; i < clients; i++) {
+            String address = source.apply(i);
+            pool.execute(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                connect(phase, address, type);
+            });
+        }
+        ready.countDown();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        return phase;
+    }
+
+    // A refused client is closed by the server before the TLS handshake, so it fails at the first read or write
+    private void connect(Phase phase, String localAddress, String type) {
+        long start = System.nanoTime();
+        try (Socket raw = new Socket()) {
+            raw.bind(new InetSocketAddress(localAddress, 0));
+            raw.connect(new InetSocketAddress(BenchmarkSupport.LOOPBACK, BenchmarkSupport.SERVER_PORT), CONNECT_TIMEOUT_MS);
+            phase.connectTime.recordSince(start);
+            try (SSLSocket socket = (SSLSocket) factory.createSocket(raw, BenchmarkSupport.LOOPBACK, BenchmarkSupport.SERVER_PORT, true)) {
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                var dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                var dis = new DataInputStream(socket.getInputStream());
+                dos.writeUTF(uuid);
+                dos.writeUTF(type);
+                dos.flush();
+                if (dis.readBoolean()) {
+                    phase.replyTime.recordSince(start);
+                    phase.served.incrementAndGet();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Counted below
+        }
+        phase.refused.incrementAndGet();
+    }
+
+    private static void printHistogram(String label, MetricsRegistry.Histogram.Snapshot snapshot) {
+        System.out.printf("%s (ms): p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f  (n=%d)%n", label,
+                snapshot.percentile(0.50) / 1e6, snapshot.percentile(0.90) / 1e6, snapshot.percentile(0.99) / 1e6,
+                snapshot.percentile(0.999) / 1e6, snapshot.getMax() / 1e6, snapshot.getCount());
+    }
+
+    private static void printMemory(String label) {
+        System.gc();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("memory %s: heap used %.1f MB, RSS %s, HWM %s, live threads %d, peak threads %d%n", label,
+                heapUsed / (1024.0 * 1024), procStatus("VmRSS"), procStatus("VmHWM"),
+                ManagementFactory.getThreadMXBean().getThreadCount(), ManagementFactory.getThreadMXBean().getPeakThreadCount());
+    }
+
+    // Linux only; elsewhere RSS is reported as n/a
+    private static String procStatus(String field) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith(field + ":")) return line.substring(field.length() + 1).trim();
+            }
+        } catch (IOException e) {
+            // Not Linux
+        }
+        return "n/a";
+    }
+
+    private static class Phase {
+        private final MetricsRegistry.Histogram connectTime;
+        private final MetricsRegistry.Histogram replyTime;
+        private final AtomicInteger served = new AtomicInteger();
+        private final AtomicInteger refused = new AtomicInteger();
+
+        Phase(String name) {
+            connectTime = MetricsRegistry.histogram("load_" + name + "_connect_nanos");
+            replyTime = MetricsRegistry.histogram("load_" + name + "_reply_nanos");
+        }
+
+        void report() {
+            System.out.printf("  served %d, refused %d%n", served.get(), refused.get());
+            printHistogram("  tcp accept", connectTime.snapshot());
+            printHistogram("  first reply", replyTime.snapshot());
+        }
+    }
+
+    // The connection pool names its threads connection-N; sampling them shows the server stays bounded
+    private static class WorkerSampler {
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicInteger peak = new AtomicInteger();
+
+        void start() {
+            timer.scheduleAtFixedRate(() -> {
+                int workers = 0;
+                for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                    if (thread.getName().startsWith("connection-")) workers++;
+                }
+                peak.accumulateAndGet(workers, Math::max);
+            }, 0, 50, TimeUnit.MILLISECONDS);
+        }
+
+        int peak() {
+            return peak.get();
+        }
+
+        void reset() {
+            peak.set(0);
+        }
+
+        void stop() {
+            timer.shutdownNow();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+package filesharing.main;
+
+import javafx.scene.control.ProgressBar;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// End to end through sendFile: mux session over loopback TLS, FILE_T framing, and receiveFileInternal
+// on the same process's server. Sizes stay under RESUME_THRESHOLD, which is where the single-stream path ends.
+// With zeroCopy the payload goes through transferTo/transferFrom on the plain port instead; MB/s is fileSize / time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBenchmark {
+    private static final long RECEIVE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int ZERO_COPY_PORT = 12346;
+
+    @Param({"65536", "1048576", "16777216"})
+    public long fileSize;
+
+    @Param({"false", "true"})
+    public boolean zeroCopy;
+
+    private final MetricsRegistry.Histogram receiveTime = MetricsRegistry.histogram("transfer_receive_nanos");
+    private Path workDir;
+    private Path received;
+    private File source;
+    private FileTransferManager fileTransferManager;
+    private ProgressBar progressBar;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkSupport.startFxToolkit();
+        workDir = Files.createTempDirectory("transfer-benchmark");
+        received = Files.createDirectories(workDir.resolve("received"));
+        source = BenchmarkSupport.randomFile(workDir.resolve("payload.bin"), fileSize);
+        SecurityManager securityManager = new SecurityManager();
+        DatabaseManager databaseManager = new DatabaseManager();
+        DeviceManager deviceManager = new DeviceManager();
+        fileTransferManager = new FileTransferManager(deviceManager, databaseManager, securityManager);
+        fileTransferManager.setSavePath(received.toString());
+        // Random payload, so the TLS path is the plain FILE_T loop rather than FILE_Z
+        fileTransferManager.setCompressTransfers(false);
+        progressBar = new ProgressBar();
+        BenchmarkSupport.startServer(deviceManager);
+        if (zeroCopy) {
+            deviceManager.recordCapabilities(BenchmarkSupport.LOOPBACK, "", "zerocopy");
+            fileTransferManager.setZeroCopyTransfer(true);
+            BenchmarkSupport.awaitPort(ZERO_COPY_PORT);
+        }
+    }
+
+    // An existing file would be versioned with a full copy before every receive
+    @TearDown(Level.Invocation)
+    public void removeReceived() throws Exception {
+        Files.deleteIfExists(received.resolve(source.getName()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkSupport.deleteTree(workDir);
+    }
+
+    // sendFile returns once the trailer is flushed; the operation ends when the receiver has verified the hash
+    @Benchmark
+    public void sendFile() {
+        long before = receiveTime.snapshot().getCount();
+        long deadline = System.nanoTime() + RECEIVE_TIMEOUT_NANOS;
+        fileTransferManager.sendFile(source, BenchmarkSupport.LOOPBACK, "", progressBar);
+        while (receiveTime.snapshot().getCount() == before) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("Receiver did not finish " + source.getName());
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+    }
+}
\ No newline at end of file
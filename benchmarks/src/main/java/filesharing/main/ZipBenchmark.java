@@ -0,0 +1,54 @@
+package filesharing.main;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+// zipFolder is the fallback for peers without streaming folders. Trees are files x bytes each, ten files per directory.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ZipBenchmark {
+    private static final int FILES_PER_DIRECTORY = 10;
+
+    @Param({"2000x4096", "200x262144", "8x8388608"})
+    public String tree;
+
+    private Path workDir;
+    private File folder;
+    private File zipFile;
+    private FileTransferManager fileTransferManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("zip-benchmark");
+        String[] shape = tree.split("x");
+        int files = Integer.parseInt(shape[0]);
+        int size = Integer.parseInt(shape[1]);
+        byte[] content = BenchmarkSupport.randomBytes(size);
+        Path root = Files.createDirectories(workDir.resolve("tree"));
+        for (int i = 0; i < files; i++) {
+            Path directory = Files.createDirectories(root.resolve("dir" + i / FILES_PER_DIRECTORY));
+            Files.write(directory.resolve("file" + i + ".bin"), content);
+        }
+        folder = root.toFile();
+        zipFile = workDir.resolve("tree.zip").toFile();
+        fileTransferManager = new FileTransferManager(new DeviceManager(), new DatabaseManager(), new SecurityManager());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteTree(workDir);
+    }
+
+    @Benchmark
+    public long zipFolder() throws IOException {
+        fileTransferManager.zipFolder(folder, zipFile);
+        return zipFile.length();
+    }
+}
\ No newline at end of file
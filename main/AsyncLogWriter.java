@@ -0,0 +1,212 @@
+package filesharing.main;
+
+import javafx.application.Platform;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncLogWriter {
+    // The store's one writer takes rows for every log table
+    private static final int QUEUE_CAPACITY = 32768;
+    private static final int MAX_BATCH = 512;
+    private static final long FLUSH_INTERVAL_MS = 50;
+    private static final long OFFER_TIMEOUT_MS = 100;
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+    private final String name;
+    private final ConnectionSource connectionSource;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private final MetricsRegistry.Histogram batchTime;
+    private final MetricsRegistry.Histogram batchRows;
+    private final MetricsRegistry.Counter droppedRows;
+    private long reportedDrops = 0;
+    private volatile boolean closed = false;
+
+    public interface ConnectionSource {
+        Connection open() throws SQLException;
+    }
+
+    private static class Entry {
+        private final String sql;
+        private final Object[] params;
+        private final CountDownLatch flushed;
+
+        private Entry(String sql, Object[] params, CountDownLatch flushed) {
+            this.sql = sql;
+            this.params = params;
+            this.flushed = flushed;
+        }
+    }
+
+    public AsyncLogWriter(String name, ConnectionSource connectionSource) {
+        this.name = name;
+        this.connectionSource = connectionSource;
+        this.batchTime = MetricsRegistry.histogram("db_" + name + "_batch_nanos");
+        this.batchRows = MetricsRegistry.histogram("db_" + name + "_batch_rows");
+        this.droppedRows = MetricsRegistry.counter("db_" + name + "_dropped_rows");
+        this.writer = new Thread(this::writeLoop, "log-writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Producers wait briefly when the writer falls behind, then drop the row rather than stall a
+    // transfer; the FX thread never waits
+    public void append(String sql, Object... params) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Entry entry = new Entry(sql, params, null);
+        try {
+            boolean queued = Platform.isFxApplicationThread()
+                    ? queue.offer(entry)
+                    : queue.offer(entry, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (!queued) dropped.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+        }
+    }
+
+    // Blocks until every row appended before the call is committed
+    public void flush() {
+        if (closed || Thread.currentThread() == writer) return;
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            queue.put(new Entry(null, null, latch));
+            latch.await(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void shutdown() {
+        if (closed) return;
+        flush();
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                if (!closed) continue;
+                queue.drainTo(batch);
+            }
+            if (batch.isEmpty()) continue;
+            // Includes the wait for the shared writer connection, which is what producers end up feeling
+            long startTime = System.nanoTime();
+            // The connection is borrowed per batch so other writers to the same file can interleave
+            try (Connection conn = connectionSource.open()) {
+                conn.setAutoCommit(false);
+                try {
+                    writeBatch(conn, batch);
+                } catch (SQLException e) {
+                    // One bad row fails the whole JDBC batch; replay the rows one at a time so only it is lost
+                    conn.rollback();
+                    dropped.addAndGet(writeRows(conn, batch));
+                }
+                batchTime.recordSince(startTime);
+                batchRows.record(countRows(batch));
+            } catch (SQLException e) {
+                e.printStackTrace();
+                dropped.addAndGet(countRows(batch));
+            } finally {
+                for (Entry entry : batch) {
+                    if (entry.flushed != null) entry.flushed.countDown();
+                }
+                batch.clear();
+            }
+            long totalDrops = dropped.get();
+            if (totalDrops > reportedDrops) {
+                System.err.println("Log writer " + name + " dropped " + (totalDrops - reportedDrops) + " rows");
+                droppedRows.add(totalDrops - reportedDrops);
+                reportedDrops = totalDrops;
+            }
+        }
+    }
+
+    // Waits for the first row, then keeps collecting until the batch is full or the flush interval ends
+    private void collectBatch(List<Entry> batch) throws InterruptedException {
+        Entry first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) return;
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS);
+        while (batch.size() < MAX_BATCH && first.flushed == null) {
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            if (batch.get(batch.size() - 1).flushed != null || batch.size() >= MAX_BATCH) return;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return;
+            Entry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) return;
+            batch.add(next);
+            if (next.flushed != null) return;
+        }
+    }
+
+    // One transaction per batch, with the rows for each statement sent as one JDBC batch. Rows for different
+    // tables arrive interleaved; grouping keeps each table's rows in order but not the order across tables
+    private void writeBatch(Connection conn, List<Entry> batch) throws SQLException {
+        Map<String, List<Entry>> bySql = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            if (entry.sql != null) bySql.computeIfAbsent(entry.sql, sql -> new ArrayList<>()).add(entry);
+        }
+        for (Map.Entry<String, List<Entry>> group : bySql.entrySet()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(group.getKey())) {
+                for (Entry entry : group.getValue()) {
+                    for (int i = 0; i < entry.params.length; i++) {
+                        pstmt.setObject(i + 1, entry.params[i]);
+                    }
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+        conn.commit();
+    }
+
+    // SQLite rolls back only the failing statement, so the rest of the transaction still commits.
+    // Returns the number of rows that were rejected.
+    private int writeRows(Connection conn, List<Entry> batch) throws SQLException {
+        int rejected = 0;
+        for (Entry entry : batch) {
+            if (entry.sql == null) continue;
+            try (PreparedStatement pstmt = conn.prepareStatement(entry.sql)) {
+                for (int i = 0; i < entry.params.length; i++) {
+                    pstmt.setObject(i + 1, entry.params[i]);
+                }
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                System.err.println("Log writer " + name + " rejected row: " + e.getMessage());
+                rejected++;
+            }
+        }
+        conn.commit();
+        return rejected;
+    }
+
+    private static int countRows(List<Entry> batch) {
+        int rows = 0;
+        for (Entry entry : batch) {
+            if (entry.sql != null) rows++;
+        }
+        return rows;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package filesharing.main;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BandwidthScheduler {
+    private static final long BURST_MILLIS = 250;
+    private static final long MIN_BURST_BYTES = 64 * 1024;
+    private final Map<String, Integer> peerWeights = new ConcurrentHashMap<>();
+    private final PriorityQueue<Request> waiting = new PriorityQueue<>();
+    private volatile long rateBytesPerSec = 0;
+    private double tokens = 0;
+    private double virtualClock = 0;
+    private long lastRefill = System.nanoTime();
+    private long sequence = 0;
+
+    public enum Priority {
+        INTERACTIVE(4), NORMAL(2), BULK(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    // One per transfer; striped streams of the same file share a flow so they are not counted as extra peers
+    public class Flow {
+        private final String peer;
+        private final Priority priority;
+        private double lastFinish = 0;
+
+        private Flow(String peer, Priority priority) {
+            this.peer = peer;
+            this.priority = priority;
+        }
+
+        public void acquire(int bytes) throws InterruptedIOException {
+            try {
+                BandwidthScheduler.this.acquire(this, bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+
+        private int weight() {
+            return Math.max(1, peerWeights.getOrDefault(peer, 1)) * priority.weight;
+        }
+    }
+
+    private static class Request implements Comparable<Request> {
+        private final double finishTag;
+        private final long order;
+
+        private Request(double finishTag, long order) {
+            this.finishTag = finishTag;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int byTag = Double.compare(finishTag, other.finishTag);
+            return byTag != 0 ? byTag : Long.compare(order, other.order);
+        }
+    }
+
+    public Flow openFlow(String peer, Priority priority) {
+        return new Flow(peer == null ? "" : peer, priority);
+    }
+
+    public void setRate(long bytesPerSec) {
+        synchronized (this) {
+            rateBytesPerSec = Math.max(0, bytesPerSec);
+            tokens = Math.min(tokens, burstSize());
+            notifyAll();
+        }
+    }
+
+    public long getRate() {
+        return rateBytesPerSec;
+    }
+
+    public void setPeerWeight(String peer, int weight) {
+        if (weight <= 1) {
+            peerWeights.remove(peer);
+        } else {
+            peerWeights.put(peer, weight);
+        }
+    }
+
+    // Weighted fair queueing over one shared bucket: each request is tagged with a virtual finish time
+    // (bytes / weight past the flow's previous tag), and the smallest tag is served next
+    private void acquire(Flow flow, int bytes) throws InterruptedException {
+        if (rateBytesPerSec <= 0 || bytes <= 0) return;
+        synchronized (this) {
+            double start = Math.max(virtualClock, flow.lastFinish);
+            flow.lastFinish = start + (double) bytes / flow.weight();
+            Request request = new Request(flow.lastFinish, sequence++);
+            waiting.add(request);
+            try {
+                while (true) {
+                    long rate = rateBytesPerSec;
+                    if (rate <= 0) return;
+                    refill(rate);
+                    // A request larger than the burst is admitted once the bucket is full and runs it into debt
+                    if (waiting.peek() == request && tokens >= Math.min(bytes, burstSize())) {
+                        tokens -= bytes;
+                        virtualClock = request.finishTag;
+                        return;
+                    }
+                    long deficit = (long) Math.max(1, Math.min(bytes, burstSize()) - tokens);
+                    wait(Math.max(1, deficit * 1000 / rate));
+                }
+            } finally {
+                waiting.remove(request);
+                notifyAll();
+            }
+        }
+    }
+
+    private void refill(long rate) {
+        long now = System.nanoTime();
+        tokens = Math.min(burstSize(), tokens + (now - lastRefill) * rate / 1_000_000_000.0);
+        lastRefill = now;
+    }
+
+    private double burstSize() {
+        return Math.max(MIN_BURST_BYTES, rateBytesPerSec * BURST_MILLIS / 1000);
+    }
+}
\ No newline at end of file
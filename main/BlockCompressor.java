@@ -0,0 +1,126 @@
+package filesharing.main;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+public class BlockCompressor implements AutoCloseable {
+    public static final int MAX_BLOCK_SIZE = 256 * 1024;
+    public static final byte CODEC_RAW = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    private static final int SAMPLE_BLOCKS = 4;
+    private static final int REPROBE_INTERVAL = 256;
+    private static final double MIN_SAVINGS_RATIO = 0.9;
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "jar", "war",
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            "mp3", "aac", "ogg", "flac", "mp4", "mkv", "avi", "mov", "webm",
+            "docx", "xlsx", "pptx", "odt", "pdf");
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final Deflater deflater;
+    private final byte[] compressed = new byte[MAX_BLOCK_SIZE + MAX_BLOCK_SIZE / 100 + 64];
+    private boolean compressing;
+    private int blockCount = 0;
+    private long sampleRawBytes = 0;
+    private long sampleWireBytes = 0;
+    private long rawBytes = 0;
+    private long wireBytes = 0;
+    private long cpuNanos = 0;
+
+    public BlockCompressor(String fileName, boolean enabled) {
+        this.compressing = enabled && isCompressible(fileName);
+        this.deflater = compressing ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    // Frame: rawLength, codec, [wireLength], bytes. A rawLength of 0 ends the stream.
+    public void writeBlock(DataOutputStream dos, byte[] data, int length) throws IOException {
+        if (length > MAX_BLOCK_SIZE) throw new IOException("Block too large: " + length);
+        blockCount++;
+        boolean probing = blockCount <= SAMPLE_BLOCKS || blockCount % REPROBE_INTERVAL == 0;
+        if (deflater != null && (compressing || probing)) {
+            long cpuStart = threadBean.getCurrentThreadCpuTime();
+            int compressedLength = deflate(data, length);
+            cpuNanos += threadBean.getCurrentThreadCpuTime() - cpuStart;
+            updateDecision(length, compressedLength < 0 ? length : compressedLength, probing);
+            if (compressedLength >= 0 && compressedLength < length) {
+                dos.writeInt(length);
+                dos.writeByte(CODEC_DEFLATE);
+                dos.writeInt(compressedLength);
+                dos.write(compressed, 0, compressedLength);
+                rawBytes += length;
+                wireBytes += compressedLength + 9;
+                return;
+            }
+        }
+        dos.writeInt(length);
+        dos.writeByte(CODEC_RAW);
+        dos.write(data, 0, length);
+        rawBytes += length;
+        wireBytes += length + 5;
+    }
+
+    public void finish(DataOutputStream dos) throws IOException {
+        dos.writeInt(0);
+    }
+
+    private int deflate(byte[] data, int length) {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < compressed.length) {
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        return deflater.finished() ? compressedLength : -1;
+    }
+
+    // Sample the first blocks and re-probe periodically; stop paying for deflate when it does not pay back
+    private void updateDecision(int rawLength, int wireLength, boolean probing) {
+        if (!probing) return;
+        sampleRawBytes += rawLength;
+        sampleWireBytes += wireLength;
+        if (blockCount == SAMPLE_BLOCKS || blockCount % REPROBE_INTERVAL == 0) {
+            compressing = sampleWireBytes < sampleRawBytes * MIN_SAVINGS_RATIO;
+            sampleRawBytes = 0;
+            sampleWireBytes = 0;
+        }
+    }
+
+    public static boolean isCompressible(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return !COMPRESSED_EXTENSIONS.contains(extension);
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public double getRatio() {
+        return rawBytes == 0 ? 1.0 : (double) wireBytes / rawBytes;
+    }
+
+    public static String summary(long rawBytes, long wireBytes, long cpuNanos, long elapsedMillis) {
+        double seconds = Math.max(1, elapsedMillis) / 1000.0;
+        return String.format("ratio %.2f, %d -> %d bytes, deflate CPU %d ms, effective %.1f MB/s over %.1f MB/s on the wire",
+                rawBytes == 0 ? 1.0 : (double) wireBytes / rawBytes, rawBytes, wireBytes, cpuNanos / 1_000_000,
+                rawBytes / seconds / (1024 * 1024), wireBytes / seconds / (1024 * 1024));
+    }
+
+    @Override
+    public void close() {
+        if (deflater != null) deflater.end();
+    }
+}
\ No newline at end of file
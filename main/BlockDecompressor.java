@@ -0,0 +1,48 @@
+package filesharing.main;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class BlockDecompressor implements AutoCloseable {
+    private final Inflater inflater = new Inflater();
+    private final byte[] wire = new byte[BlockCompressor.MAX_BLOCK_SIZE + BlockCompressor.MAX_BLOCK_SIZE / 100 + 64];
+
+    // Reads one frame written by BlockCompressor into raw; returns 0 at end of stream
+    public int readBlock(DataInputStream dis, byte[] raw) throws IOException {
+        int rawLength = dis.readInt();
+        if (rawLength == 0) return 0;
+        if (rawLength < 0 || rawLength > BlockCompressor.MAX_BLOCK_SIZE || rawLength > raw.length) {
+            throw new IOException("Invalid block length: " + rawLength);
+        }
+        byte codec = dis.readByte();
+        if (codec == BlockCompressor.CODEC_RAW) {
+            dis.readFully(raw, 0, rawLength);
+            return rawLength;
+        }
+        if (codec != BlockCompressor.CODEC_DEFLATE) throw new IOException("Unknown block codec: " + codec);
+        int wireLength = dis.readInt();
+        if (wireLength < 0 || wireLength > wire.length) throw new IOException("Invalid compressed length: " + wireLength);
+        dis.readFully(wire, 0, wireLength);
+        inflater.reset();
+        inflater.setInput(wire, 0, wireLength);
+        try {
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += n;
+            }
+            if (inflated != rawLength) throw new IOException("Corrupt compressed block");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block", e);
+        }
+        return rawLength;
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+}
\ No newline at end of file
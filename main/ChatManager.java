@@ -1,7 +1,7 @@
 package filesharing.main;
 
-import filesharing.settings.SettingsTab;
 import javafx.application.Platform;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.media.Media;
@@ -9,20 +9,31 @@ import javafx.scene.media.MediaPlayer;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatManager {
     private static final int MULTICAST_PORT = 4446;
     private static final String MULTICAST_ADDRESS = "239.255.0.1";
     private static final int MAX_RETRIES = 3;
+    private static final int SEARCH_PAGE_SIZE = 50;
+    private static final int MAX_SEARCH_RESULTS = 1000;
     private static Map<String, String> emojiMap = loadEmojiMap();
     private static MediaPlayer mediaPlayer;
+    // Set from the settings tab; kept here so the chat core does not depend on the UI
+    private static volatile boolean notificationsEnabled = true;
+    private static volatile String notificationSoundPath = "notification.wav";
+    private static final MetricsRegistry.Counter chatRetries = MetricsRegistry.counter("chat_send_retries");
+    private static final MetricsRegistry.Counter chatFailures = MetricsRegistry.counter("chat_send_failures");
+    private static final MetricsRegistry.Histogram chatSendTime = MetricsRegistry.histogram("chat_send_nanos");
     private final DeviceManager deviceManager;
     private final DatabaseManager databaseManager;
     private final SecurityManager securityManager;
     private final ExecutorService chatExecutor = Executors.newFixedThreadPool(2);
     private final Map<String, Integer> pendingNotifications = new ConcurrentHashMap<>();
+    private final AtomicInteger searchGeneration = new AtomicInteger();
 
     public ChatManager(DeviceManager deviceManager, DatabaseManager databaseManager, SecurityManager securityManager) {
         this.deviceManager = deviceManager;
@@ -39,17 +50,20 @@ public class ChatManager {
             return;
         }
 
+        long queuedAt = System.nanoTime();
         chatExecutor.submit(() -> {
             int attempt = 0;
             boolean success = false;
             while (attempt < MAX_RETRIES && !success) {
-                try (var socket = securityManager.createSSLSocket(address, 12345)) {
-                    socket.startHandshake();
-                    try (var dos = new DataOutputStream(socket.getOutputStream())) {
+                try (var channel = deviceManager.openChannel(address, "CHAT")) {
+                    try (var dos = new DataOutputStream(channel.getOutputStream())) {
                         dos.writeUTF(deviceManager.getUserUUID());
                         dos.writeUTF("CHAT");
                         dos.writeUTF(securityManager.encryptMessage(message));
-                        databaseManager.logChat(deviceManager.getUserUUID(), message, "전송");
+                        dos.flush();
+                        // Measured from the click, so queueing behind other chats and retries both count
+                        chatSendTime.recordSince(queuedAt);
+                        databaseManager.logChat(deviceManager.resolvePeer(address), message, "전송");
                         databaseManager.logActivity(deviceManager.getUserUUID(), "Chat sent to " + target + ": " + message);
                         Platform.runLater(() -> chatArea.appendText(getResourceString("sent") + processMessage(message) + "\n"));
                         success = true;
@@ -57,7 +71,10 @@ public class ChatManager {
                 } catch (Exception e) {
                     attempt++;
                     if (attempt == MAX_RETRIES) {
+                        chatFailures.increment();
                         Platform.runLater(() -> notify(getResourceString("transfer_failed")));
+                    } else {
+                        chatRetries.increment();
                     }
                     try {
                         Thread.sleep(1000);
@@ -87,7 +104,7 @@ public class ChatManager {
                     databaseManager.logActivity(deviceManager.getUserUUID(), "Group chat received from " + senderName);
                     Platform.runLater(() -> notify(getResourceString("group") + processMessage(message)));
                     pendingNotifications.merge(senderName + "_" + senderUUID, 1, Integer::sum);
-                    if (SettingsTab.isNotificationsEnabled()) {
+                    if (notificationsEnabled) {
                         playNotificationSound();
                     }
                 }
@@ -111,27 +128,49 @@ public class ChatManager {
         }
     }
 
+    // Matches are ranked once, then pages are requested one after another and appended as they arrive, so the
+    // first hits show while later pages load. A new search bumps the generation, which stops the old page chain
+    // and drops any of its pages still on the way, as LogPager does
     public void searchChatLog(String keyword, ListView<String> logView) {
+        int generation = searchGeneration.incrementAndGet();
         logView.getItems().clear();
-        try (var conn = databaseManager.getChatConnection()) {
-            String sql = "SELECT * FROM chats WHERE message LIKE ?";
-            try (var pstmt = conn.prepareStatement(sql)) {
-                pstmt.setString(1, "%" + keyword + "%");
-                var rs = pstmt.executeQuery();
-                while (rs.next()) {
-                    logView.getItems().add(String.format("%s: %s (%s) at %s",
-                            rs.getString("type"), rs.getString("message"), rs.getString("uuid"), rs.getString("timestamp")));
-                }
+        databaseManager.repository().rankChats(keyword, MAX_SEARCH_RESULTS).whenComplete((ids, error) -> {
+            if (error != null) {
+                reportSearchError(error);
+                return;
             }
-        } catch (SQLException e) {
-            Platform.runLater(() -> notify("Chat search error: " + e.getMessage()));
-            databaseManager.logActivity(deviceManager.getUserUUID(), "Chat search error: " + e.getMessage());
-        }
+            searchChatPage(keyword, ids, 0, generation, logView);
+        });
+    }
+
+    private void searchChatPage(String keyword, long[] ids, int from, int generation, ListView<String> logView) {
+        if (from >= ids.length || generation != searchGeneration.get()) return;
+        int to = Math.min(ids.length, from + SEARCH_PAGE_SIZE);
+        databaseManager.repository().chatSearchPage(keyword, ids, from, to).whenComplete((hits, error) -> {
+            if (error != null) {
+                reportSearchError(error);
+                return;
+            }
+            List<String> lines = new ArrayList<>(hits.size());
+            for (Repository.ChatSearchHit hit : hits) {
+                lines.add(String.format("%s: %s (%s) at %s",
+                        hit.type, hit.snippet, hit.uuid, DatabaseManager.formatTimestamp(hit.timestamp)));
+            }
+            Platform.runLater(() -> {
+                if (generation == searchGeneration.get()) logView.getItems().addAll(lines);
+            });
+            searchChatPage(keyword, ids, to, generation, logView);
+        });
+    }
+
+    private void reportSearchError(Throwable error) {
+        Platform.runLater(() -> notify("Chat search error: " + error.getMessage()));
+        databaseManager.logActivity(deviceManager.getUserUUID(), "Chat search error: " + error.getMessage());
     }
 
     public void setupMediaPlayer() {
         try {
-            Media sound = new Media(new File(SettingsTab.getNotificationSoundPath()).toURI().toString());
+            Media sound = new Media(new File(notificationSoundPath).toURI().toString());
             mediaPlayer = new MediaPlayer(sound);
         } catch (Exception e) {
             Platform.runLater(() -> notify("Media player setup error: " + e.getMessage()));
@@ -140,13 +179,13 @@ public class ChatManager {
     }
 
     public void playNotificationSound() {
-        if (mediaPlayer != null && SettingsTab.isNotificationsEnabled()) {
+        if (mediaPlayer != null && notificationsEnabled) {
             mediaPlayer.stop();
             mediaPlayer.play();
         }
     }
 
-    private String processMessage(String message) {
+    String processMessage(String message) {
         for (Map.Entry<String, String> entry : emojiMap.entrySet()) {
             message = message.replace(entry.getKey(), entry.getValue());
         }
@@ -169,6 +208,22 @@ public class ChatManager {
         return map;
     }
 
+    public static boolean isNotificationsEnabled() {
+        return notificationsEnabled;
+    }
+
+    public static void setNotificationsEnabled(boolean enabled) {
+        notificationsEnabled = enabled;
+    }
+
+    public static String getNotificationSoundPath() {
+        return notificationSoundPath;
+    }
+
+    public static void setNotificationSoundPath(String path) {
+        notificationSoundPath = path;
+    }
+
     public Map<String, Integer> getPendingNotifications() {
         return pendingNotifications;
     }
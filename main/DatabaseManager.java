@@ -1,143 +1,436 @@
 package filesharing.main;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.*;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.UUID;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import org.apache.commons.csv.*;
 
 public class DatabaseManager {
+    public static final String STORE_DB = "filesharing.db";
+    // Files from before the single store; each is imported once and renamed to *.migrated
     private static final String TRANSFER_DB = "transfers.db";
     private static final String CHAT_DB = "chats.db";
     private static final String DOWNLOAD_DB = "downloads.db";
     private static final String ACTIVITY_DB = "activities.db";
     private static final String VERSION_DB = "versions.db";
+    private static final String SYNC_DB = "sync_log.db";
+    private static final String INSERT_TRANSFER = "INSERT INTO transfers (file_name, type, size, timestamp, metadata, peer) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_CHAT = "INSERT INTO chats (uuid, message, type, timestamp) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_DOWNLOAD = "INSERT INTO downloads (file_name, timestamp, metadata) VALUES (?, ?, ?)";
+    private static final String INSERT_TAGS = "INSERT INTO tags (file_name, tags, timestamp) VALUES (?, ?, ?)";
+    private static final String INSERT_ACTIVITY = "INSERT INTO activities (uuid, action, timestamp) VALUES (?, ?, ?)";
+    // One file, one WAL and one page cache for everything; cross-table queries need a single connection
+    private static final SqliteDatabase store = SqliteDatabase.get(STORE_DB);
+    private static final Repository repository = new Repository(store);
+    // One write-behind writer for the whole store: the file has a single writer lock, so per-table writers would
+    // only queue on it. Every DatabaseManager instance shares it, so rows from all of them land in the same batches
+    private static final AsyncLogWriter storeLog = new AsyncLogWriter("store", store::writer);
+
+    private static final String DEFAULT_GRADE = "Green";
+    // Copy-on-write snapshots: the receive paths read a volatile map without locking, writers replace it whole
+    private static final Object policyLock = new Object();
+    private static volatile Map<String, BlockPolicy> blockedUsers = Collections.emptyMap();
+    private static volatile Map<String, String> contactGrades = Collections.emptyMap();
+    private static boolean policiesLoaded = false;
+    private static final List<Consumer<String>> policyListeners = new CopyOnWriteArrayList<>();
+
+    private static final LogRetention logRetention = createLogRetention();
+    private static final String RETENTION_SETTING = "retention_days.";
+    private static boolean retentionLoaded = false;
+
+    private static final class BlockPolicy {
+        private final boolean files;
+        private final boolean messages;
+
+        private BlockPolicy(boolean files, boolean messages) {
+            this.files = files;
+            this.messages = messages;
+        }
+    }
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(DatabaseManager::shutdownLogs, "log-writer-shutdown"));
+    }
 
     public DatabaseManager() {
         initDatabases();
+        loadPolicies();
+        loadRetention();
     }
 
+    // Recomputes the stats tables from rollups and live rows; WHERE true lets the upsert parse after a SELECT
+    private static final String[] TRANSFER_STATS_REBUILD = {
+            "DELETE FROM transfer_stats",
+            "DELETE FROM transfer_peers",
+            "INSERT INTO transfer_stats (hour, type, count, bytes) SELECT day, type, count, bytes FROM transfer_rollups WHERE true",
+            "INSERT INTO transfer_stats (hour, type, count, bytes) SELECT " + LogRetention.hourBucket("timestamp")
+                    + ", COALESCE(type, ''), COUNT(*), COALESCE(SUM(size), 0) FROM transfers WHERE true GROUP BY 1, 2 "
+                    + "ON CONFLICT (hour, type) DO UPDATE SET count = count + excluded.count, bytes = bytes + excluded.bytes",
+            "INSERT INTO transfer_peers (peer, type, count, bytes) SELECT '', type, SUM(count), SUM(bytes) FROM transfer_rollups WHERE true GROUP BY type",
+            "INSERT INTO transfer_peers (peer, type, count, bytes) SELECT COALESCE(peer, ''), COALESCE(type, ''), COUNT(*), COALESCE(SUM(size), 0) "
+                    + "FROM transfers WHERE true GROUP BY 1, 2 "
+                    + "ON CONFLICT (peer, type) DO UPDATE SET count = count + excluded.count, bytes = bytes + excluded.bytes"
+    };
+    private static final String[] CHAT_STATS_REBUILD = {
+            "DELETE FROM chat_stats",
+            "DELETE FROM chat_peers",
+            "INSERT INTO chat_stats (hour, type, count) SELECT " + LogRetention.hourBucket("timestamp") + ", COALESCE(type, ''), COUNT(*) FROM chats GROUP BY 1, 2",
+            "INSERT INTO chat_peers (peer, type, count) SELECT COALESCE(uuid, ''), COALESCE(type, ''), COUNT(*) FROM chats GROUP BY 1, 2"
+    };
+
+    // Each array is one schema version; version 1 is the original layout so existing files upgrade in place
+    static final String[][] TRANSFER_SCHEMA = {
+            {
+                    "CREATE TABLE IF NOT EXISTS transfers (file_name TEXT, type TEXT, size INTEGER, timestamp TEXT, metadata TEXT)",
+                    "CREATE TABLE IF NOT EXISTS tags (file_name TEXT, tags TEXT, timestamp TEXT)",
+                    "CREATE TABLE IF NOT EXISTS blocked_users (uuid TEXT, block_files BOOLEAN, block_messages BOOLEAN)",
+                    "CREATE TABLE IF NOT EXISTS contacts (uuid TEXT PRIMARY KEY, grade TEXT)",
+                    "CREATE TABLE IF NOT EXISTS partial_transfers (transfer_id TEXT PRIMARY KEY, file_name TEXT, size INTEGER, chunk_size INTEGER, part_path TEXT, timestamp TEXT)",
+                    "CREATE TABLE IF NOT EXISTS transfer_chunks (transfer_id TEXT, chunk_index INTEGER, hash TEXT, PRIMARY KEY (transfer_id, chunk_index))"
+            },
+            concat(
+                    rebuildWithMillis("transfers", "file_name TEXT, type TEXT, size INTEGER, timestamp INTEGER, metadata TEXT", "file_name, type, size, timestamp, metadata"),
+                    rebuildWithMillis("tags", "file_name TEXT, tags TEXT, timestamp INTEGER", "file_name, tags, timestamp"),
+                    rebuildWithMillis("partial_transfers", "transfer_id TEXT PRIMARY KEY, file_name TEXT, size INTEGER, chunk_size INTEGER, part_path TEXT, timestamp INTEGER",
+                            "transfer_id, file_name, size, chunk_size, part_path, timestamp"),
+                    new String[]{
+                            // INSERT OR REPLACE used to append duplicates here; the newest row per uuid is the one that counts
+                            "CREATE TABLE blocked_users_migrated (uuid TEXT PRIMARY KEY, block_files INTEGER NOT NULL DEFAULT 0, block_messages INTEGER NOT NULL DEFAULT 0) WITHOUT ROWID",
+                            "INSERT OR REPLACE INTO blocked_users_migrated (uuid, block_files, block_messages) SELECT uuid, COALESCE(block_files, 0), COALESCE(block_messages, 0) FROM blocked_users WHERE uuid IS NOT NULL ORDER BY rowid",
+                            "DROP TABLE blocked_users",
+                            "ALTER TABLE blocked_users_migrated RENAME TO blocked_users",
+                            "CREATE INDEX IF NOT EXISTS idx_transfers_file_name ON transfers (file_name)",
+                            "CREATE INDEX IF NOT EXISTS idx_transfers_type ON transfers (type)",
+                            "CREATE INDEX IF NOT EXISTS idx_transfers_timestamp ON transfers (timestamp)",
+                            "CREATE INDEX IF NOT EXISTS idx_tags_file_name ON tags (file_name)"
+                    }),
+            {"CREATE TABLE IF NOT EXISTS transfer_rollups (day INTEGER, type TEXT, count INTEGER NOT NULL, bytes INTEGER NOT NULL, PRIMARY KEY (day, type))"},
+            // Per-hour and per-peer totals kept up to date by a trigger, so dashboards never scan transfers. Retention
+            // deletes do not touch them; history purged before this version comes from the rollups, without a peer
+            concat(
+                    new String[]{
+                            "ALTER TABLE transfers ADD COLUMN peer TEXT",
+                            "CREATE TABLE transfer_stats (hour INTEGER, type TEXT, count INTEGER NOT NULL, bytes INTEGER NOT NULL, PRIMARY KEY (hour, type)) WITHOUT ROWID",
+                            "CREATE TABLE transfer_peers (peer TEXT, type TEXT, count INTEGER NOT NULL, bytes INTEGER NOT NULL, PRIMARY KEY (peer, type)) WITHOUT ROWID",
+                            "CREATE TRIGGER transfers_stats_insert AFTER INSERT ON transfers BEGIN "
+                                    + "INSERT INTO transfer_stats (hour, type, count, bytes) VALUES (" + LogRetention.hourBucket("new.timestamp")
+                                    + ", COALESCE(new.type, ''), 1, COALESCE(new.size, 0)) "
+                                    + "ON CONFLICT (hour, type) DO UPDATE SET count = count + 1, bytes = bytes + excluded.bytes; "
+                                    + "INSERT INTO transfer_peers (peer, type, count, bytes) VALUES (COALESCE(new.peer, ''), COALESCE(new.type, ''), 1, COALESCE(new.size, 0)) "
+                                    + "ON CONFLICT (peer, type) DO UPDATE SET count = count + 1, bytes = bytes + excluded.bytes; END"
+                    },
+                    TRANSFER_STATS_REBUILD)
+    };
+    static final String[][] CHAT_SCHEMA = {
+            {"CREATE TABLE IF NOT EXISTS chats (uuid TEXT, message TEXT, type TEXT, timestamp TEXT)"},
+            concat(
+                    rebuildWithMillis("chats", "uuid TEXT, message TEXT, type TEXT, timestamp INTEGER", "uuid, message, type, timestamp"),
+                    new String[]{
+                            "CREATE INDEX IF NOT EXISTS idx_chats_uuid ON chats (uuid)",
+                            "CREATE INDEX IF NOT EXISTS idx_chats_type ON chats (type)",
+                            "CREATE INDEX IF NOT EXISTS idx_chats_timestamp ON chats (timestamp)"
+                    }),
+            // An explicit id keeps rowids stable under VACUUM, which the external-content index relies on.
+            // The trigram tokenizer matches substrings, so results agree with the old LIKE search, Korean included
+            {
+                    "CREATE TABLE chats_migrated (id INTEGER PRIMARY KEY, uuid TEXT, message TEXT, type TEXT, timestamp INTEGER)",
+                    "INSERT INTO chats_migrated (id, uuid, message, type, timestamp) SELECT rowid, uuid, message, type, timestamp FROM chats",
+                    "DROP TABLE chats",
+                    "ALTER TABLE chats_migrated RENAME TO chats",
+                    "CREATE INDEX idx_chats_uuid ON chats (uuid)",
+                    "CREATE INDEX idx_chats_type ON chats (type)",
+                    "CREATE INDEX idx_chats_timestamp ON chats (timestamp)",
+                    "CREATE VIRTUAL TABLE chats_fts USING fts5(message, content='chats', content_rowid='id', tokenize='trigram')",
+                    "CREATE TRIGGER chats_fts_insert AFTER INSERT ON chats BEGIN "
+                            + "INSERT INTO chats_fts (rowid, message) VALUES (new.id, new.message); END",
+                    "CREATE TRIGGER chats_fts_delete AFTER DELETE ON chats BEGIN "
+                            + "INSERT INTO chats_fts (chats_fts, rowid, message) VALUES ('delete', old.id, old.message); END",
+                    "CREATE TRIGGER chats_fts_update AFTER UPDATE OF message ON chats BEGIN "
+                            + "INSERT INTO chats_fts (chats_fts, rowid, message) VALUES ('delete', old.id, old.message); "
+                            + "INSERT INTO chats_fts (rowid, message) VALUES (new.id, new.message); END",
+                    "INSERT INTO chats_fts (chats_fts) VALUES ('rebuild')"
+            },
+            concat(
+                    new String[]{
+                            "CREATE TABLE chat_stats (hour INTEGER, type TEXT, count INTEGER NOT NULL, PRIMARY KEY (hour, type)) WITHOUT ROWID",
+                            "CREATE TABLE chat_peers (peer TEXT, type TEXT, count INTEGER NOT NULL, PRIMARY KEY (peer, type)) WITHOUT ROWID",
+                            "CREATE TRIGGER chats_stats_insert AFTER INSERT ON chats BEGIN "
+                                    + "INSERT INTO chat_stats (hour, type, count) VALUES (" + LogRetention.hourBucket("new.timestamp") + ", COALESCE(new.type, ''), 1) "
+                                    + "ON CONFLICT (hour, type) DO UPDATE SET count = count + 1; "
+                                    + "INSERT INTO chat_peers (peer, type, count) VALUES (COALESCE(new.uuid, ''), COALESCE(new.type, ''), 1) "
+                                    + "ON CONFLICT (peer, type) DO UPDATE SET count = count + 1; END"
+                    },
+                    CHAT_STATS_REBUILD)
+    };
+    private static final String[][] DOWNLOAD_SCHEMA = {
+            {"CREATE TABLE IF NOT EXISTS downloads (file_name TEXT, timestamp TEXT, metadata TEXT)"},
+            concat(
+                    rebuildWithMillis("downloads", "file_name TEXT, timestamp INTEGER, metadata TEXT", "file_name, timestamp, metadata"),
+                    new String[]{
+                            "CREATE INDEX IF NOT EXISTS idx_downloads_file_name ON downloads (file_name)",
+                            "CREATE INDEX IF NOT EXISTS idx_downloads_timestamp ON downloads (timestamp)"
+                    }),
+            {"CREATE TABLE IF NOT EXISTS download_rollups (day INTEGER PRIMARY KEY, count INTEGER NOT NULL)"}
+    };
+    private static final String[][] ACTIVITY_SCHEMA = {
+            {"CREATE TABLE IF NOT EXISTS activities (uuid TEXT, action TEXT, timestamp TEXT)"},
+            concat(
+                    rebuildWithMillis("activities", "uuid TEXT, action TEXT, timestamp INTEGER", "uuid, action, timestamp"),
+                    new String[]{
+                            "CREATE INDEX IF NOT EXISTS idx_activities_uuid ON activities (uuid)",
+                            "CREATE INDEX IF NOT EXISTS idx_activities_timestamp ON activities (timestamp)"
+                    }),
+            // kind is the action text up to its first colon, which drops the per-event detail
+            {"CREATE TABLE IF NOT EXISTS activity_rollups (hour INTEGER, uuid TEXT, kind TEXT, count INTEGER NOT NULL, PRIMARY KEY (hour, uuid, kind))"}
+    };
+    private static final String[][] VERSION_SCHEMA = {
+            {"CREATE TABLE IF NOT EXISTS versions (file_name TEXT, version_name TEXT, size INTEGER, hash TEXT, timestamp TEXT)"},
+            concat(
+                    rebuildWithMillis("versions", "file_name TEXT, version_name TEXT, size INTEGER, hash TEXT, timestamp INTEGER", "file_name, version_name, size, hash, timestamp"),
+                    new String[]{
+                            "CREATE INDEX IF NOT EXISTS idx_versions_file_name ON versions (file_name)",
+                            "CREATE INDEX IF NOT EXISTS idx_versions_timestamp ON versions (timestamp)"
+                    })
+    };
+
+    private static final String[][] SETTINGS_SCHEMA = {
+            {"CREATE TABLE IF NOT EXISTS settings (name TEXT PRIMARY KEY, value TEXT NOT NULL)"}
+    };
+
+    private static final String[][] SYNC_SCHEMA = {
+            {
+                    "CREATE TABLE IF NOT EXISTS sync_folders (path TEXT PRIMARY KEY)",
+                    "CREATE TABLE IF NOT EXISTS sync_log (id INTEGER PRIMARY KEY AUTOINCREMENT, file_name TEXT, action TEXT, timestamp TEXT)",
+                    "CREATE TABLE IF NOT EXISTS sync_files (path TEXT PRIMARY KEY, size INTEGER, modified INTEGER, hash BLOB)",
+                    "CREATE TABLE IF NOT EXISTS sync_chunks (path TEXT, chunk_index INTEGER, offset INTEGER, length INTEGER, hash BLOB, PRIMARY KEY (path, chunk_index))"
+            }
+    };
+
+    // Each module keeps its own schema version inside the store. A file from before the store is first
+    // brought up to the same schema in place, then copied in and renamed
     private void initDatabases() {
-        try (Connection conn = getTransferConnection()) {
-            Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS transfers (file_name TEXT, type TEXT, size INTEGER, timestamp TEXT, metadata TEXT)");
-            stmt.execute("CREATE TABLE IF NOT EXISTS tags (file_name TEXT, tags TEXT, timestamp TEXT)");
-            stmt.execute("CREATE TABLE IF NOT EXISTS blocked_users (uuid TEXT, block_files BOOLEAN, block_messages BOOLEAN)");
-            stmt.execute("CREATE TABLE IF NOT EXISTS contacts (uuid TEXT PRIMARY KEY, grade TEXT)");
+        boolean imported = migrateModule("transfers", TRANSFER_DB, TRANSFER_SCHEMA,
+                "transfers", "tags", "blocked_users", "contacts", "partial_transfers", "transfer_chunks", "transfer_rollups");
+        imported |= migrateModule("chats", CHAT_DB, CHAT_SCHEMA, "chats");
+        migrateModule("downloads", DOWNLOAD_DB, DOWNLOAD_SCHEMA, "downloads", "download_rollups");
+        migrateModule("activities", ACTIVITY_DB, ACTIVITY_SCHEMA, "activities", "activity_rollups");
+        migrateModule("versions", VERSION_DB, VERSION_SCHEMA, "versions");
+        migrateModule("sync", SYNC_DB, SYNC_SCHEMA, "sync_folders", "sync_log", "sync_files", "sync_chunks");
+        try {
+            store.migrate("settings", SETTINGS_SCHEMA);
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        if (imported) rebuildStats();
+    }
 
-        try (Connection conn = getChatConnection()) {
-            Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS chats (uuid TEXT, message TEXT, type TEXT, timestamp TEXT)");
-        } catch (SQLException e) {
+    // Returns true when rows were copied in from the legacy file
+    private boolean migrateModule(String module, String legacyFile, String[][] schema, String... tables) {
+        try {
+            store.migrate(module, schema);
+            File legacy = new File(legacyFile);
+            if (!legacy.exists()) return false;
+            SqliteDatabase.get(legacyFile).migrate(rowMigrations(schema));
+            SqliteDatabase.release(legacyFile);
+            boolean imported = store.importFrom(legacyFile, tables);
+            Files.move(legacy.toPath(), new File(legacyFile + ".migrated").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return imported;
+        } catch (SQLException | IOException e) {
             e.printStackTrace();
+            return false;
         }
+    }
 
-        try (Connection conn = getDownloadConnection()) {
-            Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS downloads (file_name TEXT, timestamp TEXT, metadata TEXT)");
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // A legacy file only needs its rows in the current shape before they are copied out. The store builds its own
+    // indexes, full-text index and stats as the rows arrive, so those steps are left out here
+    private static String[][] rowMigrations(String[][] schema) {
+        String[][] steps = new String[schema.length][];
+        for (int i = 0; i < schema.length; i++) {
+            steps[i] = Arrays.stream(schema[i])
+                    .filter(sql -> !sql.startsWith("CREATE INDEX") && !sql.startsWith("CREATE TRIGGER")
+                            && !sql.contains("_fts") && !sql.matches("(?s).*\\w_(stats|peers)\\b.*"))
+                    .toArray(String[]::new);
         }
+        return steps;
+    }
 
-        try (Connection conn = getActivityConnection()) {
+    // Imported rows fire the stats triggers but purged history only arrives as rollups, so both are recounted
+    private void rebuildStats() {
+        try (Connection conn = store.writer()) {
+            conn.setAutoCommit(false);
             Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS activities (uuid TEXT, action TEXT, timestamp TEXT)");
+            for (String sql : concat(TRANSFER_STATS_REBUILD, CHAT_STATS_REBUILD)) {
+                stmt.execute(sql);
+            }
+            conn.commit();
         } catch (SQLException e) {
             e.printStackTrace();
         }
+    }
 
-        try (Connection conn = getVersionConnection()) {
-            Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS versions (file_name TEXT, version_name TEXT, size INTEGER, hash TEXT, timestamp TEXT)");
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // Old rows are folded into the rollup tables before they are deleted; chats, tags and versions are kept
+    private static LogRetention createLogRetention() {
+        LogRetention retention = new LogRetention();
+        retention.addPolicy("activities", STORE_DB, 30,
+                "INSERT INTO activity_rollups (hour, uuid, kind, count) SELECT " + LogRetention.hourBucket("timestamp") + ", COALESCE(uuid, ''), "
+                        + "substr(action, 1, CASE WHEN instr(action, ':') > 0 THEN min(instr(action, ':') - 1, 64) ELSE 64 END), COUNT(*) "
+                        + "FROM activities WHERE timestamp < ? GROUP BY 1, 2, 3 "
+                        + "ON CONFLICT (hour, uuid, kind) DO UPDATE SET count = count + excluded.count");
+        retention.addPolicy("transfers", STORE_DB, 365,
+                "INSERT INTO transfer_rollups (day, type, count, bytes) SELECT " + LogRetention.dayBucket("timestamp") + ", COALESCE(type, ''), COUNT(*), COALESCE(SUM(size), 0) "
+                        + "FROM transfers WHERE timestamp < ? GROUP BY 1, 2 "
+                        + "ON CONFLICT (day, type) DO UPDATE SET count = count + excluded.count, bytes = bytes + excluded.bytes");
+        retention.addPolicy("downloads", STORE_DB, 365,
+                "INSERT INTO download_rollups (day, count) SELECT " + LogRetention.dayBucket("timestamp") + ", COUNT(*) "
+                        + "FROM downloads WHERE timestamp < ? GROUP BY 1 "
+                        + "ON CONFLICT (day) DO UPDATE SET count = count + excluded.count");
+        return retention;
+    }
+
+    public void startLogCleanup() {
+        logRetention.start();
+    }
+
+    // Saved per table in the settings table, so a change survives restarts; 0 keeps the table forever
+    public void setRetentionDays(String table, long days) {
+        synchronized (logRetention) {
+            try (Connection conn = store.writer();
+                 PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO settings (name, value) VALUES (?, ?)")) {
+                pstmt.setString(1, RETENTION_SETTING + table);
+                pstmt.setString(2, String.valueOf(Math.max(0, days)));
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            logRetention.setTtlDays(table, days);
+        }
+    }
+
+    public long getRetentionDays(String table) {
+        return logRetention.getTtlDays(table);
+    }
+
+    // Saved values replace the defaults from createLogRetention; the first purge runs a minute after startup
+    private static void loadRetention() {
+        synchronized (logRetention) {
+            if (retentionLoaded) return;
+            try (Connection conn = store.reader();
+                 PreparedStatement pstmt = conn.prepareStatement("SELECT name, value FROM settings WHERE name GLOB ?")) {
+                pstmt.setString(1, RETENTION_SETTING + "*");
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    try {
+                        logRetention.setTtlDays(rs.getString("name").substring(RETENTION_SETTING.length()), Long.parseLong(rs.getString("value")));
+                    } catch (NumberFormatException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            retentionLoaded = true;
+        }
+    }
+
+    // SQLite cannot change a column type in place, so the table is copied with timestamps converted.
+    // Old values are LocalDateTime.toString() in local time; julianday's 'utc' modifier shifts them to UTC
+    private static String[] rebuildWithMillis(String table, String columnDefinitions, String columns) {
+        String converted = columns.replace("timestamp", "CASE WHEN typeof(timestamp) = 'integer' THEN timestamp "
+                + "ELSE CAST(ROUND((julianday(substr(timestamp, 1, 23), 'utc') - 2440587.5) * 86400000) AS INTEGER) END");
+        return new String[]{
+                "CREATE TABLE " + table + "_migrated (" + columnDefinitions + ")",
+                "INSERT INTO " + table + "_migrated (" + columns + ") SELECT " + converted + " FROM " + table,
+                "DROP TABLE " + table,
+                "ALTER TABLE " + table + "_migrated RENAME TO " + table
+        };
+    }
+
+    private static String[] concat(String[]... parts) {
+        List<String> all = new ArrayList<>();
+        for (String[] part : parts) {
+            all.addAll(Arrays.asList(part));
         }
+        return all.toArray(new String[0]);
     }
 
+    public static String formatTimestamp(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()).toString();
+    }
+
+    // Typed queries that complete off the calling thread; FX and I/O callers should prefer these
+    public Repository repository() {
+        return repository;
+    }
+
+    // Pooled read-only connections on the shared store; closing one returns it to the pool
     public Connection getTransferConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + TRANSFER_DB);
+        return store.reader();
     }
 
     public Connection getChatConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + CHAT_DB);
+        return store.reader();
     }
 
     public Connection getDownloadConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + DOWNLOAD_DB);
+        return store.reader();
     }
 
     public Connection getActivityConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + ACTIVITY_DB);
+        return store.reader();
     }
 
     public Connection getVersionConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + VERSION_DB);
+        return store.reader();
     }
 
-    public void logTransfer(String fileName, String type, long size, String metadata) {
-        try (Connection conn = getTransferConnection();
-             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO transfers (file_name, type, size, timestamp, metadata) VALUES (?, ?, ?, ?, ?)")) {
-            pstmt.setString(1, fileName);
-            pstmt.setString(2, type);
-            pstmt.setLong(3, size);
-            pstmt.setString(4, LocalDateTime.now().toString());
-            pstmt.setString(5, metadata);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    public LogPager activityPager() {
+        return new LogPager(store, "activities", "timestamp");
     }
 
+    public LogPager versionPager() {
+        return new LogPager(store, "versions", "timestamp");
+    }
+
+    // peer is the other side's UUID in both directions; senders resolve their target address through
+    // DeviceManager.resolvePeer, which leaves the address only for a peer that has never identified itself
+    public void logTransfer(String fileName, String type, long size, String metadata, String peer) {
+        storeLog.append(INSERT_TRANSFER, fileName, type, size, System.currentTimeMillis(), metadata, peer);
+    }
+
+    // uuid is the other side, as for transfers: the sender of a received chat, the target of a sent one
     public void logChat(String uuid, String message, String type) {
-        try (Connection conn = getChatConnection();
-             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO chats (uuid, message, type, timestamp) VALUES (?, ?, ?, ?)")) {
-            pstmt.setString(1, uuid);
-            pstmt.setString(2, message);
-            pstmt.setString(3, type);
-            pstmt.setString(4, LocalDateTime.now().toString());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        storeLog.append(INSERT_CHAT, uuid, message, type, System.currentTimeMillis());
     }
 
     public void logDownload(String fileName, String metadata) {
-        try (Connection conn = getDownloadConnection();
-             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO downloads (file_name, timestamp, metadata) VALUES (?, ?, ?)")) {
-            pstmt.setString(1, fileName);
-            pstmt.setString(2, LocalDateTime.now().toString());
-            pstmt.setString(3, metadata);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        storeLog.append(INSERT_DOWNLOAD, fileName, System.currentTimeMillis(), metadata);
     }
 
     public void logTags(String fileName, String tags) {
-        try (Connection conn = getTransferConnection();
-             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO tags (file_name, tags, timestamp) VALUES (?, ?, ?)")) {
-            pstmt.setString(1, fileName);
-            pstmt.setString(2, tags);
-            pstmt.setString(3, LocalDateTime.now().toString());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        storeLog.append(INSERT_TAGS, fileName, tags, System.currentTimeMillis());
     }
 
     public void logActivity(String uuid, String action) {
-        try (Connection conn = getActivityConnection();
-             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO activities (uuid, action, timestamp) VALUES (?, ?, ?)")) {
-            pstmt.setString(1, uuid);
-            pstmt.setString(2, action);
-            pstmt.setString(3, LocalDateTime.now().toString());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        storeLog.append(INSERT_ACTIVITY, uuid, action, System.currentTimeMillis());
+    }
+
+    // Blocks until queued log rows are committed, for readers that need to see their own writes
+    public void flushLogs() {
+        storeLog.flush();
+    }
+
+    public static void shutdownLogs() {
+        storeLog.shutdown();
+        SqliteDatabase.closeAll();
     }
 
     public void logUpdateActivity(String action, String version, String developer, boolean success) {
@@ -147,100 +440,230 @@ public class DatabaseManager {
     }
 
     public void logFileVersion(String fileName, String versionName, long size, String hash) {
-        try (Connection conn = getVersionConnection();
+        try (Connection conn = store.writer();
              PreparedStatement pstmt = conn.prepareStatement("INSERT INTO versions (file_name, version_name, size, hash, timestamp) VALUES (?, ?, ?, ?, ?)")) {
             pstmt.setString(1, fileName);
             pstmt.setString(2, versionName);
             pstmt.setLong(3, size);
             pstmt.setString(4, hash);
-            pstmt.setString(5, LocalDateTime.now().toString());
+            pstmt.setLong(5, System.currentTimeMillis());
             pstmt.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
-    public void blockUser(String uuid, boolean blockFiles, boolean blockMessages) {
-        try (Connection conn = getTransferConnection();
-             PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO blocked_users (uuid, block_files, block_messages) VALUES (?, ?, ?)")) {
-            pstmt.setString(1, uuid);
-            pstmt.setBoolean(2, blockFiles);
-            pstmt.setBoolean(3, blockMessages);
+    public void savePartialTransfer(String transferId, String fileName, long size, int chunkSize, String partPath) {
+        try (Connection conn = store.writer();
+             PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO partial_transfers (transfer_id, file_name, size, chunk_size, part_path, timestamp) VALUES (?, ?, ?, ?, ?, ?)")) {
+            pstmt.setString(1, transferId);
+            pstmt.setString(2, fileName);
+            pstmt.setLong(3, size);
+            pstmt.setInt(4, chunkSize);
+            pstmt.setString(5, partPath);
+            pstmt.setLong(6, System.currentTimeMillis());
             pstmt.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
-    public boolean isFileBlocked(String uuid) {
+    public String getPartialTransferPath(String transferId, long size, int chunkSize) {
         try (Connection conn = getTransferConnection();
-             PreparedStatement pstmt = conn.prepareStatement("SELECT block_files FROM blocked_users WHERE uuid = ?")) {
-            pstmt.setString(1, uuid);
+             PreparedStatement pstmt = conn.prepareStatement("SELECT part_path FROM partial_transfers WHERE transfer_id = ? AND size = ? AND chunk_size = ?")) {
+            pstmt.setString(1, transferId);
+            pstmt.setLong(2, size);
+            pstmt.setInt(3, chunkSize);
             ResultSet rs = pstmt.executeQuery();
-            return rs.next() && rs.getBoolean("block_files");
+            return rs.next() ? rs.getString("part_path") : null;
         } catch (SQLException e) {
             e.printStackTrace();
-            return false;
+            return null;
         }
     }
 
-    public boolean isMessageBlocked(String uuid) {
-        try (Connection conn = getTransferConnection();
-             PreparedStatement pstmt = conn.prepareStatement("SELECT block_messages FROM blocked_users WHERE uuid = ?")) {
-            pstmt.setString(1, uuid);
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next() && rs.getBoolean("block_messages");
+    public void logVerifiedChunk(String transferId, int chunkIndex, String hash) {
+        try (Connection conn = store.writer();
+             PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO transfer_chunks (transfer_id, chunk_index, hash) VALUES (?, ?, ?)")) {
+            pstmt.setString(1, transferId);
+            pstmt.setInt(2, chunkIndex);
+            pstmt.setString(3, hash);
+            pstmt.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
-            return false;
         }
     }
 
-    public void setContactGrade(String uuid, String grade) {
+    public Set<Integer> getVerifiedChunks(String transferId) {
+        Set<Integer> chunks = new HashSet<>();
         try (Connection conn = getTransferConnection();
-             PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO contacts (uuid, grade) VALUES (?, ?)")) {
-            pstmt.setString(1, uuid);
-            pstmt.setString(2, grade);
-            pstmt.executeUpdate();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT chunk_index FROM transfer_chunks WHERE transfer_id = ?")) {
+            pstmt.setString(1, transferId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                chunks.add(rs.getInt("chunk_index"));
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        return chunks;
     }
 
-    public String getContactGrade(String uuid) {
-        try (Connection conn = getTransferConnection();
-             PreparedStatement pstmt = conn.prepareStatement("SELECT grade FROM contacts WHERE uuid = ?")) {
-            pstmt.setString(1, uuid);
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? rs.getString("grade") : "Green";
+    public void removePartialTransfer(String transferId) {
+        try (Connection conn = store.writer()) {
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM transfer_chunks WHERE transfer_id = ?")) {
+                pstmt.setString(1, transferId);
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM partial_transfers WHERE transfer_id = ?")) {
+                pstmt.setString(1, transferId);
+                pstmt.executeUpdate();
+            }
         } catch (SQLException e) {
             e.printStackTrace();
-            return "Green";
+        }
+    }
+
+    public void blockUser(String uuid, boolean blockFiles, boolean blockMessages) {
+        synchronized (policyLock) {
+            try (Connection conn = store.writer();
+                 PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO blocked_users (uuid, block_files, block_messages) VALUES (?, ?, ?)")) {
+                pstmt.setString(1, uuid);
+                pstmt.setBoolean(2, blockFiles);
+                pstmt.setBoolean(3, blockMessages);
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            Map<String, BlockPolicy> updated = new HashMap<>(blockedUsers);
+            if (blockFiles || blockMessages) {
+                updated.put(uuid, new BlockPolicy(blockFiles, blockMessages));
+            } else {
+                updated.remove(uuid);
+            }
+            blockedUsers = Collections.unmodifiableMap(updated);
+        }
+        firePolicyChanged(uuid);
+    }
+
+    public boolean isFileBlocked(String uuid) {
+        BlockPolicy policy = blockedUsers.get(uuid);
+        return policy != null && policy.files;
+    }
+
+    public boolean isMessageBlocked(String uuid) {
+        BlockPolicy policy = blockedUsers.get(uuid);
+        return policy != null && policy.messages;
+    }
+
+    public void setContactGrade(String uuid, String grade) {
+        synchronized (policyLock) {
+            try (Connection conn = store.writer();
+                 PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO contacts (uuid, grade) VALUES (?, ?)")) {
+                pstmt.setString(1, uuid);
+                pstmt.setString(2, grade);
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            Map<String, String> updated = new HashMap<>(contactGrades);
+            updated.put(uuid, grade);
+            contactGrades = Collections.unmodifiableMap(updated);
+        }
+        firePolicyChanged(uuid);
+    }
+
+    public String getContactGrade(String uuid) {
+        return contactGrades.getOrDefault(uuid, DEFAULT_GRADE);
+    }
+
+    public void addPolicyListener(Consumer<String> listener) {
+        policyListeners.add(listener);
+    }
+
+    private void firePolicyChanged(String uuid) {
+        for (Consumer<String> listener : policyListeners) {
+            listener.accept(uuid);
+        }
+    }
+
+    // Loaded once per process; afterwards the database is only written, never read, for these checks
+    private static void loadPolicies() {
+        synchronized (policyLock) {
+            if (policiesLoaded) return;
+            Map<String, BlockPolicy> blocked = new HashMap<>();
+            Map<String, String> grades = new HashMap<>();
+            try (Connection conn = store.reader()) {
+                ResultSet rs = conn.createStatement().executeQuery("SELECT uuid, block_files, block_messages FROM blocked_users");
+                while (rs.next()) {
+                    boolean files = rs.getBoolean("block_files");
+                    boolean messages = rs.getBoolean("block_messages");
+                    if (files || messages) blocked.put(rs.getString("uuid"), new BlockPolicy(files, messages));
+                }
+                rs = conn.createStatement().executeQuery("SELECT uuid, grade FROM contacts");
+                while (rs.next()) {
+                    grades.put(rs.getString("uuid"), rs.getString("grade"));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            blockedUsers = Collections.unmodifiableMap(blocked);
+            contactGrades = Collections.unmodifiableMap(grades);
+            policiesLoaded = true;
         }
     }
 
     public void exportBackup(String backupPath) throws SQLException, IOException {
-        try (Connection transferConn = getTransferConnection();
-             Connection chatConn = getChatConnection();
+        try (Connection conn = store.reader();
              CSVPrinter printer = new CSVPrinter(new FileWriter(backupPath), CSVFormat.DEFAULT.withHeader("table", "data"))) {
-            Statement stmt = transferConn.createStatement();
+            Statement stmt = conn.createStatement();
             ResultSet rs = stmt.executeQuery("SELECT * FROM transfers");
             while (rs.next()) {
                 printer.printRecord("transfers", String.format("%s,%s,%d,%s,%s",
                         rs.getString("file_name"), rs.getString("type"), rs.getLong("size"),
-                        rs.getString("timestamp"), rs.getString("metadata")));
+                        formatTimestamp(rs.getLong("timestamp")), rs.getString("metadata")));
             }
             rs = stmt.executeQuery("SELECT * FROM tags");
             while (rs.next()) {
                 printer.printRecord("tags", String.format("%s,%s,%s",
-                        rs.getString("file_name"), rs.getString("tags"), rs.getString("timestamp")));
+                        rs.getString("file_name"), rs.getString("tags"), formatTimestamp(rs.getLong("timestamp"))));
             }
-            stmt = chatConn.createStatement();
             rs = stmt.executeQuery("SELECT * FROM chats");
             while (rs.next()) {
                 printer.printRecord("chats", String.format("%s,%s,%s,%s",
-                        rs.getString("uuid"), rs.getString("message"), rs.getString("type"), rs.getString("timestamp")));
+                        rs.getString("uuid"), rs.getString("message"), rs.getString("type"), formatTimestamp(rs.getLong("timestamp"))));
             }
         }
     }
+
+    // Only rows added since the last run in this directory are written, as compact gzip'd binary
+    public File backupIncremental(File directory) throws SQLException, IOException, InterruptedException {
+        flushLogs();
+        return createBackup(directory).backup();
+    }
+
+    // Replays the backups in a directory into the current databases; rows already present are skipped. So are
+    // rows retention has purged, whose counts already live on in the rollups. The replayed inserts fire the stats
+    // triggers, so the stats are recounted from rollups and live rows afterwards, as after a legacy import
+    public IncrementalBackup.RestoreResult restoreBackup(File directory) throws SQLException, IOException {
+        flushLogs();
+        Map<String, Long> purged = new HashMap<>();
+        for (String table : List.of("transfers", "tags", "chats")) {
+            purged.put(table, logRetention.purgedBefore(table));
+        }
+        IncrementalBackup.RestoreResult result = createBackup(directory).restore(purged);
+        if (result.restored > 0) rebuildStats();
+        return result;
+    }
+
+    private static IncrementalBackup createBackup(File directory) {
+        IncrementalBackup backup = new IncrementalBackup(directory);
+        backup.addTable("transfers", store, "rowid", "file_name", "type", "size", "timestamp", "metadata", "peer");
+        backup.addTable("tags", store, "rowid", "file_name", "tags", "timestamp");
+        backup.addTable("chats", store, "id", "uuid", "message", "type", "timestamp");
+        return backup;
+    }
 }
\ No newline at end of file
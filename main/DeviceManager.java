@@ -6,15 +6,35 @@ import javax.jmdns.ServiceListener;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javafx.application.Platform;
-import javax.net.ssl.SSLSocket;
 
 public class DeviceManager {
     private static final String SERVICE_TYPE = "_fileshare._tcp.local.";
     private static final int PORT = 12345;
     private static final int MAX_RECONNECT_ATTEMPTS = 5;
     private static final long RECONNECT_DELAY_MS = 5000;
+    private static final int MAX_CONNECTIONS = 64;
+    private static final int MAX_QUEUED_CONNECTIONS = 256;
+    // Striped transfers open up to eight streams to one peer, plus chat and status traffic
+    private static final int MAX_CONNECTIONS_PER_PEER = 16;
+    private static final int SOCKET_TIMEOUT_MS = 60000;
+    private static final int STATUS_FANOUT_THREADS = 8;
+    private static final long STATUS_COALESCE_MS = 250;
+    private static final long STATUS_DEADLINE_MS = 10000;
+    private static final int STATUS_ATTEMPTS = 3;
+    private static final long STATUS_RETRY_DELAY_MS = 1000;
     private static JmDNS jmdns;
     private static Map<String, String> discoveredDevices = new ConcurrentHashMap<>();
     private static Map<String, String> deviceStatus = new ConcurrentHashMap<>();
@@ -22,30 +42,60 @@ public class DeviceManager {
     private static String userUUID = UUID.randomUUID().toString();
     private static String userName = "User_" + userUUID.substring(0, 8);
     private static String userStatus = "Online";
+    private static Map<String, ConnectionHandler> connectionHandlers = new ConcurrentHashMap<>();
+    private static Map<String, String> peerCodecs = new ConcurrentHashMap<>();
+    private static Map<String, String> peerFeatures = new ConcurrentHashMap<>();
+    private static Map<String, String> peerUuids = new ConcurrentHashMap<>();
+    private static Map<InetAddress, AtomicInteger> peerConnections = new ConcurrentHashMap<>();
+    private static final ThreadPoolExecutor connectionExecutor = createConnectionExecutor();
+    private static PresenceEngine presenceEngine;
+    private static final ThreadPoolExecutor statusExecutor = createStatusExecutor();
+    private static final ScheduledExecutorService statusTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "status-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicLong statusGeneration = new AtomicLong();
+    private static final MetricsRegistry.Counter serverAccepts = MetricsRegistry.counter("server_accepts");
+    private static final MetricsRegistry.Counter serverRejects = MetricsRegistry.counter("server_rejects");
+    private static final MetricsRegistry.Histogram serverQueueWait = MetricsRegistry.histogram("server_queue_wait_nanos");
+    private static final MetricsRegistry.Counter devicesResolved = MetricsRegistry.counter("discovery_resolved");
+    private static final MetricsRegistry.Counter devicesRemoved = MetricsRegistry.counter("discovery_removed");
+    private static CompletableFuture<Map<String, Boolean>> pendingBroadcast;
     private final SecurityManager securityManager;
     private final DatabaseManager databaseManager;
+    private final PeerConnectionManager peerConnectionManager;
+
+    public interface ConnectionHandler {
+        void handle(String uuid, DataInputStream dis, DataOutputStream dos) throws IOException;
+    }
 
     public DeviceManager() {
         this.securityManager = new SecurityManager();
         this.databaseManager = new DatabaseManager();
+        this.peerConnectionManager = new PeerConnectionManager(this, securityManager);
     }
 
     public void setupMDNS() throws IOException {
+        presenceEngine = new PresenceEngine(this, databaseManager);
+        presenceEngine.start();
         jmdns = JmDNS.create(InetAddress.getLocalHost());
         jmdns.addServiceListener(SERVICE_TYPE, new ServiceListener() {
             @Override
             public void serviceAdded(ServiceEvent event) {
-                Platform.runLater(() -> notify(getResourceString("device_discovered") + event.getName()));
+                Platform.runLater(() -> DeviceManager.this.notify(getResourceString("device_discovered") + event.getName()));
             }
 
             @Override
             public void serviceRemoved(ServiceEvent event) {
                 String name = event.getName();
+                devicesRemoved.increment();
+                presenceEngine.markOffline(name);
                 Platform.runLater(() -> {
                     discoveredDevices.remove(name);
                     deviceStatus.remove(name);
                     userStatuses.remove(name);
-                    notify(getResourceString("device_removed") + name);
+                    DeviceManager.this.notify(getResourceString("device_removed") + name);
                     databaseManager.logActivity(userUUID, "Device removed: " + name);
                 });
             }
@@ -54,19 +104,30 @@ public class DeviceManager {
             public void serviceResolved(ServiceEvent event) {
                 String name = event.getName();
                 String address = event.getInfo().getInetAddresses()[0].getHostAddress();
+                devicesResolved.increment();
+                recordCapabilities(address, event.getInfo().getPropertyString("codecs"), event.getInfo().getPropertyString("features"));
+                // Service names are userName_uuid, and user names may themselves contain underscores
+                String serviceUuid = name.substring(name.lastIndexOf('_') + 1);
+                if (securityManager.validateUUID(serviceUuid)) peerUuids.put(address, serviceUuid);
                 Platform.runLater(() -> {
                     discoveredDevices.put(name, address);
                     deviceStatus.put(name, getResourceString("online"));
                     userStatuses.put(name, "Online");
-                    notify(getResourceString("device_info") + name + " (" + address + ")");
+                    DeviceManager.this.notify(getResourceString("device_info") + name + " (" + address + ")");
                     databaseManager.logActivity(userUUID, "Device discovered: " + name);
                 });
-                checkDeviceStatus(address, name);
+                presenceEngine.track(name, address);
             }
         });
 
+        // Capabilities ride in the TXT record so senders can pick a codec without an extra round trip
+        Map<String, String> properties = new HashMap<>();
+        properties.put("SSL", "true");
+        properties.put("codecs", "deflate");
+        // Understands FILE_ZC; whether zero-copy is switched on is answered per transfer
+        properties.put("features", "zerocopy");
         jmdns.registerService(javax.jmdns.ServiceInfo.create(
-                SERVICE_TYPE, userName + "_" + userUUID, PORT, "SSL: true"));
+                SERVICE_TYPE, userName + "_" + userUUID, PORT, 0, 0, properties));
         databaseManager.logActivity(userUUID, "mDNS service registered");
     }
 
@@ -75,7 +136,8 @@ public class DeviceManager {
             serverSocket.setNeedClientAuth(true);
             while (true) {
                 var socket = serverSocket.accept();
-                new Thread(() -> handleClient(socket)).start();
+                serverAccepts.increment();
+                dispatchClient(socket);
             }
         } catch (IOException e) {
             Platform.runLater(() -> notify("Server error: " + e.getMessage()));
@@ -91,36 +153,172 @@ public class DeviceManager {
                 startServer();
                 databaseManager.logActivity(userUUID, "Server reconnected successfully");
                 return;
-            } catch (InterruptedException | IOException e) {
+            } catch (InterruptedException e) {
                 databaseManager.logActivity(userUUID, "Server reconnect attempt " + attempt + " failed: " + e.getMessage());
             }
         }
         Platform.runLater(() -> notify("Failed to reconnect server after " + MAX_RECONNECT_ATTEMPTS + " attempts"));
     }
 
+    // Java 17 has no virtual threads, so connections share a bounded pool instead of a thread each
+    private static ThreadPoolExecutor createConnectionExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONNECTIONS, MAX_CONNECTIONS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_CONNECTIONS), runnable -> {
+                    Thread thread = new Thread(runnable, "connection-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadPoolExecutor createStatusExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(STATUS_FANOUT_THREADS, STATUS_FANOUT_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "status-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void dispatchClient(Socket socket) {
+        InetAddress peer = socket.getInetAddress();
+        AtomicInteger count = peerConnections.computeIfAbsent(peer, key -> new AtomicInteger());
+        if (count.incrementAndGet() > MAX_CONNECTIONS_PER_PEER) {
+            serverRejects.increment();
+            releasePeerSlot(peer, count);
+            closeQuietly(socket);
+            databaseManager.logActivity(userUUID, "Connection limit reached for " + peer.getHostAddress());
+            return;
+        }
+        try {
+            // The TLS handshake runs on the worker at first read, so a slow peer never stalls accept
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            long queuedAt = System.nanoTime();
+            connectionExecutor.execute(() -> {
+                serverQueueWait.recordSince(queuedAt);
+                try {
+                    handleClient(socket);
+                } finally {
+                    releasePeerSlot(peer, count);
+                }
+            });
+        } catch (IOException | RejectedExecutionException e) {
+            serverRejects.increment();
+            releasePeerSlot(peer, count);
+            closeQuietly(socket);
+            databaseManager.logActivity(userUUID, "Connection rejected from " + peer.getHostAddress() + ": " + e.getMessage());
+        }
+    }
+
+    private void releasePeerSlot(InetAddress peer, AtomicInteger count) {
+        if (count.decrementAndGet() <= 0) {
+            peerConnections.remove(peer, count);
+        }
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
     private void handleClient(Socket socket) {
-        try (var dis = new DataInputStream(socket.getInputStream());
-             var dos = new DataOutputStream(socket.getOutputStream())) {
+        boolean adopted = false;
+        try {
+            var dis = new DataInputStream(socket.getInputStream());
+            var dos = new DataOutputStream(socket.getOutputStream());
             String uuid = dis.readUTF();
-            if (!securityManager.validateUUID(uuid)) {
-                socket.close();
-                return;
-            }
+            if (!securityManager.validateUUID(uuid)) return;
+            peerUuids.put(socket.getInetAddress().getHostAddress(), uuid);
             String type = dis.readUTF();
-            if (type.equals("STATUS")) {
-                String name = dis.readUTF();
-                String status = dis.readUTF();
-                Platform.runLater(() -> {
-                    deviceStatus.put(name, getResourceString("online"));
-                    userStatuses.put(name, status);
-                });
-                databaseManager.logActivity(uuid, "Status updated: " + status);
+            if (type.equals(PeerConnectionManager.MUX_TYPE)) {
+                // A multiplexed session lives on its own reader thread and hands each stream back to the pool
+                adopted = peerConnectionManager.accept(socket, dos, this::dispatchStream);
+                return;
             }
+            handleRequest(uuid, type, dis, dos);
         } catch (IOException e) {
             // Handled by ChatManager or FileTransferManager
+        } finally {
+            if (!adopted) closeQuietly(socket);
+        }
+    }
+
+    private void dispatchStream(PeerConnectionManager.PeerChannel channel) {
+        try {
+            connectionExecutor.execute(() -> {
+                try (channel) {
+                    var dis = new DataInputStream(channel.getInputStream());
+                    var dos = new DataOutputStream(channel.getOutputStream());
+                    String uuid = dis.readUTF();
+                    if (!securityManager.validateUUID(uuid)) return;
+                    handleRequest(uuid, dis.readUTF(), dis, dos);
+                    dos.flush();
+                } catch (IOException e) {
+                    // Same as a dropped connection
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // Session already gone
+            }
         }
     }
 
+    private void handleRequest(String uuid, String type, DataInputStream dis, DataOutputStream dos) throws IOException {
+        if (type.equals("STATUS")) {
+            String name = dis.readUTF();
+            String status = dis.readUTF();
+            Platform.runLater(() -> {
+                deviceStatus.put(name, getResourceString("online"));
+                userStatuses.put(name, status);
+            });
+            databaseManager.logActivity(uuid, "Status updated: " + status);
+        } else {
+            ConnectionHandler handler = connectionHandlers.get(type);
+            if (handler != null) {
+                handler.handle(uuid, dis, dos);
+            }
+        }
+    }
+
+    // Persistent multiplexed channel when the peer supports it, a fresh TLS connection otherwise
+    public PeerConnectionManager.PeerChannel openChannel(String address, String channel) throws IOException {
+        return peerConnectionManager.open(address, channel);
+    }
+
+    public void registerConnectionHandler(String type, ConnectionHandler handler) {
+        connectionHandlers.putIfAbsent(type, handler);
+    }
+
+    void recordCapabilities(String address, String codecs, String features) {
+        peerCodecs.put(address, codecs == null ? "" : codecs);
+        peerFeatures.put(address, features == null ? "" : features);
+    }
+
+    // Outgoing work only knows the peer's address and incoming work only its UUID; per-peer state is keyed
+    // by UUID once the peer has identified itself over mDNS or a TLS connection
+    public String resolvePeer(String address) {
+        return peerUuids.getOrDefault(address, address);
+    }
+
+    public boolean supportsCompression(String address) {
+        return Arrays.asList(peerCodecs.getOrDefault(address, "").split(",")).contains("deflate");
+    }
+
+    public boolean supportsZeroCopy(String address) {
+        return Arrays.asList(peerFeatures.getOrDefault(address, "").split(",")).contains("zerocopy");
+    }
+
     public void addManualDevice(String ip, Runnable notifyCallback) {
         if (!ip.matches("\\d+\\.\\d+\\.\\d+\\.\\d+")) {
             notifyCallback.run();
@@ -132,52 +330,9 @@ public class DeviceManager {
         userStatuses.put(name, "Online");
         notifyCallback.run();
         databaseManager.logActivity(userUUID, "Manual device added: " + ip);
-        checkDeviceStatus(ip, name);
-    }
-
-    private void checkDeviceStatus(String address, String name) {
-        new Thread(() -> {
-            while (true) {
-                int attempt = 0;
-                boolean connected = false;
-                while (attempt < MAX_RECONNECT_ATTEMPTS && !connected) {
-                    try (SSLSocket socket = securityManager.createSSLSocket(address, PORT)) {
-                        socket.connect(new InetSocketAddress(address, PORT), 2000);
-                        socket.startHandshake();
-                        try (var dos = new DataOutputStream(socket.getOutputStream())) {
-                            dos.writeUTF(userUUID);
-                            dos.writeUTF("STATUS");
-                            dos.writeUTF(userName + "_" + userUUID);
-                            dos.writeUTF(userStatus);
-                        }
-                        Platform.runLater(() -> {
-                            deviceStatus.put(name, getResourceString("online"));
-                            userStatuses.put(name, userStatuses.getOrDefault(name, "Online"));
-                        });
-                        connected = true;
-                    } catch (IOException e) {
-                        attempt++;
-                        Platform.runLater(() -> deviceStatus.put(name, getResourceString("offline")));
-                        databaseManager.logActivity(userUUID, "Device " + name + " connection attempt " + attempt + " failed: " + e.getMessage());
-                        if (attempt < MAX_RECONNECT_ATTEMPTS) {
-                            try {
-                                Thread.sleep(RECONNECT_DELAY_MS);
-                            } catch (InterruptedException ex) {
-                                ex.printStackTrace();
-                            }
-                        }
-                    }
-                }
-                if (!connected) {
-                    Platform.runLater(() -> notify("Failed to reconnect to " + name + " after " + MAX_RECONNECT_ATTEMPTS + " attempts"));
-                }
-                try {
-                    Thread.sleep(10000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }).start();
+        if (presenceEngine != null) {
+            presenceEngine.track(name, ip);
+        }
     }
 
     private String getResourceString(String key) {
@@ -200,6 +355,10 @@ public class DeviceManager {
         return userStatuses;
     }
 
+    public boolean isPeerOnline(String name) {
+        return presenceEngine == null || presenceEngine.isOnline(name);
+    }
+
     public String getUserUUID() {
         return userUUID;
     }
@@ -217,38 +376,85 @@ public class DeviceManager {
         databaseManager.logActivity(userUUID, "Username updated to: " + newName);
     }
 
-    public void setUserStatus(String status) {
+    // Completes with per-peer delivery results once every online peer was reached or hit its deadline
+    public CompletableFuture<Map<String, Boolean>> setUserStatus(String status) {
         userStatus = status;
-        broadcastStatus();
         databaseManager.logActivity(userUUID, "Status set to: " + status);
+        return broadcastStatus();
+    }
+
+    // Rapid changes inside the coalescing window share one round that carries the latest status
+    private CompletableFuture<Map<String, Boolean>> broadcastStatus() {
+        synchronized (statusTimer) {
+            if (pendingBroadcast != null) return pendingBroadcast;
+            CompletableFuture<Map<String, Boolean>> round = new CompletableFuture<>();
+            pendingBroadcast = round;
+            statusTimer.schedule(() -> {
+                synchronized (statusTimer) {
+                    pendingBroadcast = null;
+                }
+                fanOutStatus().whenComplete((results, error) -> {
+                    if (error != null) round.completeExceptionally(error);
+                    else round.complete(results);
+                });
+            }, STATUS_COALESCE_MS, TimeUnit.MILLISECONDS);
+            return round;
+        }
     }
 
-    private void broadcastStatus() {
+    private CompletableFuture<Map<String, Boolean>> fanOutStatus() {
+        long generation = statusGeneration.incrementAndGet();
+        String status = userStatus;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STATUS_DEADLINE_MS);
+        Map<String, Boolean> results = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> deliveries = new ArrayList<>();
         discoveredDevices.forEach((name, address) -> {
-            int attempt = 0;
-            boolean success = false;
-            while (attempt < MAX_RECONNECT_ATTEMPTS && !success) {
-                try (var socket = securityManager.createSSLSocket(address, PORT)) {
-                    socket.startHandshake();
-                    try (var dos = new DataOutputStream(socket.getOutputStream())) {
+            if (!isPeerOnline(name)) return;
+            CompletableFuture<Void> delivery = new CompletableFuture<>();
+            sendStatus(name, address, status, generation, 1, deadline, delivery);
+            deliveries.add(delivery.orTimeout(STATUS_DEADLINE_MS, TimeUnit.MILLISECONDS)
+                    .handle((ignored, error) -> {
+                        results.put(name, error == null);
+                        if (error != null) {
+                            databaseManager.logActivity(userUUID, "Status broadcast to " + name + " failed: " + error.getClass().getSimpleName());
+                        }
+                        return null;
+                    }));
+        });
+        return CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0])).thenApply(done -> results);
+    }
+
+    // Retries wait on the timer rather than sleeping in a fan-out thread, and stop once the
+    // deadline passed or a newer status round superseded this one. The connect and handshake get only
+    // what is left of the deadline, so an unreachable peer releases its worker when the round gives up on it.
+    private void sendStatus(String name, String address, String status, long generation, int attempt, long deadline, CompletableFuture<Void> delivery) {
+        try {
+            statusExecutor.execute(() -> {
+                if (delivery.isDone()) return;
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    delivery.completeExceptionally(new TimeoutException());
+                    return;
+                }
+                try (var channel = peerConnectionManager.open(address, "STATUS", (int) remainingMs)) {
+                    try (var dos = new DataOutputStream(channel.getOutputStream())) {
                         dos.writeUTF(userUUID);
                         dos.writeUTF("STATUS");
                         dos.writeUTF(userName + "_" + userUUID);
-                        dos.writeUTF(userStatus);
+                        dos.writeUTF(status);
                     }
-                    success = true;
+                    delivery.complete(null);
                 } catch (IOException e) {
-                    attempt++;
-                    databaseManager.logActivity(userUUID, "Status broadcast to " + name + " attempt " + attempt + " failed: " + e.getMessage());
-                    if (attempt < MAX_RECONNECT_ATTEMPTS) {
-                        try {
-                            Thread.sleep(RECONNECT_DELAY_MS);
-                        } catch (InterruptedException ex) {
-                            ex.printStackTrace();
-                        }
+                    if (attempt >= STATUS_ATTEMPTS || generation != statusGeneration.get()) {
+                        delivery.completeExceptionally(e);
+                        return;
                     }
+                    statusTimer.schedule(() -> sendStatus(name, address, status, generation, attempt + 1, deadline, delivery),
+                            STATUS_RETRY_DELAY_MS * attempt, TimeUnit.MILLISECONDS);
                 }
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            delivery.completeExceptionally(e);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package filesharing.main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class DigestService {
+    public static final String ALGORITHM = "SHA-256";
+    // The transfer loops' pooled buffer size: large enough that the reads cost little next to the hashing, and
+    // small enough that each chunk is still in cache when the digest reads it back; 1 MB ran about 14% slower
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(DigestService::newSha256);
+    // Direct, so channel.read fills it without the extra copy NIO makes through a temporary direct buffer
+    // for heap buffers. Reused for the thread's lifetime, unlike per-window mappings, which stayed until a GC
+    // unmapped them and meanwhile kept the file from being deleted or renamed on Windows
+    private static final ThreadLocal<ByteBuffer> readBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+    public interface ChunkSink {
+        void accept(ByteBuffer chunk) throws GeneralSecurityException;
+    }
+
+    private DigestService() {
+    }
+
+    // The calling thread's instance, reset. It is shared by everything on the thread, so it must not be
+    // held across a call to hashFile or another sha256(); code that needs two digests at once uses newSha256
+    public static MessageDigest sha256() {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        return digest;
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Two table lookups per byte into one Latin-1 array, which String keeps as its backing store
+    public static String toHex(byte[] bytes) {
+        byte[] hex = new byte[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int value = bytes[i] & 0xff;
+            hex[i * 2] = HEX_DIGITS[value >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[value & 0x0f];
+        }
+        return new String(hex, StandardCharsets.ISO_8859_1);
+    }
+
+    public static byte[] hashFile(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            update(digest, channel, 0, channel.size());
+        }
+        return digest.digest();
+    }
+
+    public static String hexHashFile(Path file) throws IOException {
+        return toHex(hashFile(file));
+    }
+
+    // Positional reads, so the channel's own position is left where the caller had it
+    public static void update(MessageDigest digest, FileChannel channel, long position, long length) throws IOException {
+        try {
+            read(channel, position, length, digest::update);
+        } catch (GeneralSecurityException e) {
+            // MessageDigest.update never throws
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // For consumers other than a digest, such as a Signature, that should see the file the same way
+    public static void readFile(Path file, ChunkSink sink) throws IOException, GeneralSecurityException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), sink);
+        }
+    }
+
+    // The sink gets the thread's read buffer, so it must consume each chunk before returning and must not
+    // read a file through DigestService itself
+    private static void read(FileChannel channel, long position, long length, ChunkSink sink) throws IOException, GeneralSecurityException {
+        ByteBuffer buffer = readBuffers.get();
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("File ended at " + position + " of " + end);
+            buffer.flip();
+            sink.accept(buffer);
+            position += read;
+        }
+    }
+}
\ No newline at end of file
@@ -1,12 +1,18 @@
 package filesharing.main;
 
 import javafx.application.Platform;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextInputDialog;
 import javafx.stage.FileChooser;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.zip.*;
@@ -14,15 +20,49 @@ import oshi.SystemInfo;
 import oshi.hardware.NetworkIF;
 
 public class FileTransferManager {
-    private static final int CHUNK_SIZE = 8192;
     private static final int MAX_RETRIES = 3;
+    private static final int ZERO_COPY_PORT = 12346;
+    private static final long ZERO_COPY_CHUNK_SIZE = 8L * 1024 * 1024;
+    private static final int ZERO_COPY_TICKET_BYTES = 16;
+    private static final long ZERO_COPY_CONNECT_TIMEOUT_MS = 10000;
+    // Senders write the ticket as soon as they connect, so a slow ticket is a stray or idle connection
+    private static final int ZERO_COPY_TICKET_READ_TIMEOUT_MS = 2000;
+    private static final long RESUME_THRESHOLD = 32L * 1024 * 1024;
+    private static final long STRIPE_THRESHOLD = 256L * 1024 * 1024;
+    private static final BufferPool tlsBufferPool = new BufferPool(256 * 1024, 16, false);
+    // Shared by every sender and receiver so the limit applies to the machine, not to each transfer
+    private static final BandwidthScheduler bandwidthScheduler = new BandwidthScheduler();
+    private static final MetricsRegistry.Counter bytesSent = MetricsRegistry.counter("transfer_bytes_sent");
+    private static final MetricsRegistry.Counter bytesReceived = MetricsRegistry.counter("transfer_bytes_received");
+    private static final MetricsRegistry.Counter sendRetries = MetricsRegistry.counter("transfer_send_retries");
+    private static final MetricsRegistry.Counter sendFailures = MetricsRegistry.counter("transfer_send_failures");
+    private static final MetricsRegistry.Counter receiveFailures = MetricsRegistry.counter("transfer_receive_failures");
+    private static final MetricsRegistry.Histogram queueWait = MetricsRegistry.histogram("transfer_queue_wait_nanos");
+    private static final MetricsRegistry.Histogram sendTime = MetricsRegistry.histogram("transfer_send_nanos");
+    private static final MetricsRegistry.Histogram receiveTime = MetricsRegistry.histogram("transfer_receive_nanos");
+    private static final MetricsRegistry.Histogram receiveHashTime = MetricsRegistry.histogram("transfer_receive_hash_nanos");
     private static String savePath = System.getProperty("user.home") + "/Downloads";
-    private static long transferSpeedLimit = 0;
     private static boolean autoAcceptFiles = false;
     private static boolean autoBandwidthLimit = false;
+    private static boolean compressTransfers = true;
+    private static volatile boolean zeroCopyTransfer = false;
+    private static volatile ServerSocketChannel zeroCopyServer;
+    // Tickets handed out over TLS; the plain listener only takes a connection that presents one of them
+    private static final Map<String, CompletableFuture<SocketChannel>> zeroCopyTickets = new ConcurrentHashMap<>();
+    private static final SecureRandom ticketRandom = new SecureRandom();
+    // Claims run apart from the transfer pool; the queue is bounded so idle connections to the open port
+    // are dropped instead of piling up
+    private static final ExecutorService ticketExecutor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(32), runnable -> {
+                Thread thread = new Thread(runnable, "zero-copy-ticket");
+                thread.setDaemon(true);
+                return thread;
+            });
     private final DeviceManager deviceManager;
     private final DatabaseManager databaseManager;
     private final SecurityManager securityManager;
+    private final StripedTransferManager stripedTransferManager;
+    private final FolderTransferManager folderTransferManager;
     private final ExecutorService transferExecutor = Executors.newFixedThreadPool(4);
     private final Map<String, Double> transferProgress = new ConcurrentHashMap<>();
     private final Map<String, Future<?>> transferTasks = new ConcurrentHashMap<>();
@@ -33,6 +73,12 @@ public class FileTransferManager {
         this.deviceManager = deviceManager;
         this.databaseManager = databaseManager;
         this.securityManager = securityManager;
+        this.stripedTransferManager = new StripedTransferManager(deviceManager, databaseManager, securityManager, this);
+        this.folderTransferManager = new FolderTransferManager(deviceManager, databaseManager, securityManager, this);
+        deviceManager.registerConnectionHandler("FILE", (uuid, dis, dos) -> receiveFileRequest(uuid, "FILE", dis));
+        deviceManager.registerConnectionHandler("FILE_T", (uuid, dis, dos) -> receiveFileRequest(uuid, "FILE_T", dis));
+        deviceManager.registerConnectionHandler("FILE_Z", (uuid, dis, dos) -> receiveFileRequest(uuid, "FILE_Z", dis));
+        deviceManager.registerConnectionHandler("FILE_ZC", this::receiveFileZeroCopy);
         if (autoBandwidthLimit) {
             startBandwidthMonitor();
         }
@@ -59,83 +105,67 @@ public class FileTransferManager {
         for (File file : files) {
             String fileName = file.getName();
             transferProgress.put(fileName, 0.0);
-            Future<?> task = transferExecutor.submit(() -> sendFile(file, address, tags.orElse(""), progressBar));
+            long queuedAt = System.nanoTime();
+            Future<?> task = transferExecutor.submit(() -> {
+                queueWait.recordSince(queuedAt);
+                sendFile(file, address, tags.orElse(""), progressBar);
+            });
             transferTasks.put(fileName, task);
         }
     }
 
-    private void sendFile(File file, String address, String tags, ProgressBar progressBar) {
+    void sendFile(File file, String address, String tags, ProgressBar progressBar) {
         int attempt = 0;
         boolean success = false;
         String fileName = file.getName();
         while (attempt < MAX_RETRIES && !success) {
-            try (var socket = securityManager.createSSLSocket(address, 12345)) {
-                socket.startHandshake();
-                try (var dos = new DataOutputStream(socket.getOutputStream());
-                     var fis = new FileInputStream(file);
-                     var inChannel = fis.getChannel()) {
-
-                    File sendFile = file;
-                    if (file.isDirectory()) {
-                        fileName = file.getName() + ".zip";
-                        sendFile = new File(savePath, fileName);
-                        zipFolder(file, sendFile);
-                    }
-
-                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                    try (var hashFis = new FileInputStream(sendFile)) {
-                        byte[] buffer = new byte[CHUNK_SIZE];
-                        int count;
-                        while ((count = hashFis.read(buffer)) > 0) {
-                            digest.update(buffer, 0, count);
-                        }
-                    }
-                    String fileHash = securityManager.bytesToHex(digest.digest());
-                    String metadata = String.format("Size: %d bytes, Modified: %s", sendFile.length(), new Date(sendFile.lastModified()));
-
-                    dos.writeUTF(deviceManager.getUserUUID());
-                    dos.writeUTF("FILE");
-                    dos.writeUTF(fileName);
-                    dos.writeLong(sendFile.length());
-                    dos.writeUTF(metadata);
-                    dos.writeUTF(fileHash);
-                    dos.writeUTF(tags);
-
-                    ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
-                    long bytesRead = 0;
-                    long startTime = System.currentTimeMillis();
-                    Platform.runLater(() -> progressBar.setVisible(true));
-                    while (bytesRead < sendFile.length()) {
-                        int read = inChannel.read(buffer);
-                        if (read == -1) break;
-                        buffer.flip();
-                        dos.write(buffer.array(), 0, read);
-                        bytesRead += read;
-                        buffer.clear();
-                        double progress = (double) bytesRead / sendFile.length();
-                        transferProgress.put(fileName, progress);
-                        Platform.runLater(() -> progressBar.setProgress(progress));
-                        throttleTransfer(bytesRead, startTime);
-                    }
-                    databaseManager.logTransfer(fileName, "전송", sendFile.length(), metadata);
-                    databaseManager.logTags(fileName, tags);
-                    databaseManager.logActivity(deviceManager.getUserUUID(), "File sent: " + fileName);
-                    transferProgress.remove(fileName);
-                    transferTasks.remove(fileName);
-                    Platform.runLater(() -> {
-                        progressBar.setProgress(0);
-                        progressBar.setVisible(false);
-                        notify(getResourceString("file_sent") + fileName);
-                    });
+            File sendFile = file;
+            long startTime = System.nanoTime();
+            try {
+                Platform.runLater(() -> progressBar.setVisible(true));
+                if (file.isDirectory() && folderTransferManager.sendFolder(file, address, tags, progressBar)) {
+                    finishSend(fileName, progressBar);
                     success = true;
-                    if (sendFile != file) sendFile.delete();
+                    continue;
+                }
+                if (file.isDirectory()) {
+                    // Peer predates streaming folders, so zip the tree as before
+                    fileName = file.getName() + ".zip";
+                    sendFile = new File(savePath, fileName);
+                    zipFolder(file, sendFile);
                 }
+
+                String metadata = String.format("Size: %d bytes, Modified: %s", sendFile.length(), new Date(sendFile.lastModified()));
+
+                // Both ends must have zero-copy switched on; when the receiver declines, the file takes the TLS path
+                boolean zeroCopied = zeroCopyTransfer && deviceManager.supportsZeroCopy(address)
+                        && sendFileZeroCopy(sendFile, fileName, address, metadata, tags, progressBar);
+                if (zeroCopied) {
+                    databaseManager.logActivity(deviceManager.getUserUUID(), "Zero-copy send of " + fileName);
+                } else if (sendFile.length() >= RESUME_THRESHOLD) {
+                    // Large files go through the chunk manifest so a retry only moves the missing chunks
+                    boolean striped = sendFile.length() >= STRIPE_THRESHOLD;
+                    stripedTransferManager.sendChunked(sendFile, fileName, address, metadata, tags, striped, progressBar);
+                } else {
+                    sendFileOverTls(sendFile, fileName, address, metadata, tags, progressBar);
+                }
+
+                sendTime.recordSince(startTime);
+                databaseManager.logTransfer(fileName, "전송", sendFile.length(), metadata, deviceManager.resolvePeer(address));
+                databaseManager.logTags(fileName, tags);
+                databaseManager.logActivity(deviceManager.getUserUUID(), "File sent: " + fileName);
+                finishSend(fileName, progressBar);
+                success = true;
+                if (sendFile != file) sendFile.delete();
             } catch (Exception e) {
                 attempt++;
                 if (attempt == MAX_RETRIES) {
+                    sendFailures.increment();
                     Platform.runLater(() -> notify(getResourceString("transfer_failed")));
                     transferProgress.remove(fileName);
                     transferTasks.remove(fileName);
+                } else {
+                    sendRetries.increment();
                 }
                 try {
                     Thread.sleep(1000);
@@ -146,16 +176,150 @@ public class FileTransferManager {
         }
     }
 
+    private void finishSend(String fileName, ProgressBar progressBar) {
+        transferProgress.remove(fileName);
+        transferTasks.remove(fileName);
+        Platform.runLater(() -> {
+            progressBar.setProgress(0);
+            progressBar.setVisible(false);
+            notify(getResourceString("file_sent") + fileName);
+        });
+    }
+
+    // FILE_T carries the SHA-256 as a trailer after the payload, so the file is read exactly once.
+    // FILE_Z is the same with the payload framed as compressor blocks, used when the peer advertises deflate.
+    private void sendFileOverTls(File sendFile, String fileName, String address, String metadata, String tags, ProgressBar progressBar) throws Exception {
+        boolean compress = compressTransfers && deviceManager.supportsCompression(address);
+        try (var channel = deviceManager.openChannel(address, "FILE")) {
+            try (var dos = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream(), 64 * 1024));
+                 var inChannel = FileChannel.open(sendFile.toPath(), StandardOpenOption.READ);
+                 var compressor = new BlockCompressor(fileName, compress)) {
+                writeFileHeader(dos, compress ? "FILE_Z" : "FILE_T", fileName, sendFile.length(), metadata, tags);
+
+                MessageDigest digest = DigestService.sha256();
+                // SSLSocket only accepts byte[] writes, so the pooled buffers stay on-heap but large
+                ByteBuffer buffer = tlsBufferPool.acquire();
+                BandwidthScheduler.Flow flow = bandwidthScheduler.openFlow(deviceManager.resolvePeer(address), BandwidthScheduler.Priority.NORMAL);
+                long startTime = System.currentTimeMillis();
+                try {
+                    long bytesRead = 0;
+                    while (bytesRead < sendFile.length()) {
+                        int read = inChannel.read(buffer);
+                        if (read == -1) break;
+                        digest.update(buffer.array(), 0, read);
+                        if (compress) {
+                            compressor.writeBlock(dos, buffer.array(), read);
+                        } else {
+                            dos.write(buffer.array(), 0, read);
+                        }
+                        bytesRead += read;
+                        bytesSent.add(read);
+                        buffer.clear();
+                        updateProgress(fileName, bytesRead, sendFile.length(), progressBar);
+                        flow.acquire(read);
+                    }
+                } finally {
+                    tlsBufferPool.release(buffer);
+                }
+                if (compress) compressor.finish(dos);
+                dos.writeUTF(securityManager.bytesToHex(digest.digest()));
+                dos.flush();
+                if (compress) {
+                    databaseManager.logActivity(deviceManager.getUserUUID(), "Compression for " + fileName + ": "
+                            + BlockCompressor.summary(compressor.getRawBytes(), compressor.getWireBytes(),
+                            compressor.getCpuNanos(), System.currentTimeMillis() - startTime));
+                }
+            }
+        }
+    }
+
+    // The request, the ticket and the hash travel over the authenticated TLS channel; only the payload
+    // takes the plain socket. Returns false when the receiver has zero-copy switched off.
+    private boolean sendFileZeroCopy(File sendFile, String fileName, String address, String metadata, String tags, ProgressBar progressBar) throws Exception {
+        try (var control = deviceManager.openChannel(address, "FILE")) {
+            var dos = new DataOutputStream(new BufferedOutputStream(control.getOutputStream()));
+            var dis = new DataInputStream(control.getInputStream());
+            writeFileHeader(dos, "FILE_ZC", fileName, sendFile.length(), metadata, tags);
+            dos.flush();
+            String ticket = dis.readUTF();
+            if (ticket.isEmpty()) return false;
+
+            MessageDigest digest = DigestService.sha256();
+            long fileSize = sendFile.length();
+            try (var channel = SocketChannel.open(new InetSocketAddress(address, ZERO_COPY_PORT));
+                 var inChannel = FileChannel.open(sendFile.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer ticketBytes = ByteBuffer.wrap(ticket.getBytes(StandardCharsets.US_ASCII));
+                while (ticketBytes.hasRemaining()) {
+                    channel.write(ticketBytes);
+                }
+                long position = 0;
+                BandwidthScheduler.Flow flow = bandwidthScheduler.openFlow(deviceManager.resolvePeer(address), BandwidthScheduler.Priority.NORMAL);
+                while (position < fileSize) {
+                    long sent = inChannel.transferTo(position, Math.min(ZERO_COPY_CHUNK_SIZE, fileSize - position), channel);
+                    if (sent <= 0 && position >= inChannel.size()) break;
+                    // The range was just pulled into the page cache by transferTo, so hashing it costs no disk I/O
+                    DigestService.update(digest, inChannel, position, sent);
+                    position += sent;
+                    bytesSent.add(sent);
+                    updateProgress(fileName, position, fileSize, progressBar);
+                    flow.acquire((int) sent);
+                }
+                if (position < fileSize) {
+                    throw new IOException("File truncated during zero-copy transfer");
+                }
+            }
+            dos.writeUTF(securityManager.bytesToHex(digest.digest()));
+            dos.flush();
+            if (!dis.readBoolean()) {
+                throw new IOException("Receiver rejected zero-copy transfer of " + fileName);
+            }
+            return true;
+        }
+    }
+
+    private void writeFileHeader(DataOutputStream dos, String type, String fileName, long fileSize, String metadata, String tags) throws IOException {
+        dos.writeUTF(deviceManager.getUserUUID());
+        dos.writeUTF(type);
+        dos.writeUTF(fileName);
+        dos.writeLong(fileSize);
+        dos.writeUTF(metadata);
+        dos.writeUTF(tags);
+    }
+
+    private void receiveFileRequest(String uuid, String type, DataInputStream dis) throws IOException {
+        if (databaseManager.isFileBlocked(uuid)) return;
+        String fileName = new File(dis.readUTF()).getName();
+        long fileSize = dis.readLong();
+        String metadata = dis.readUTF();
+        // Legacy FILE headers carry the hash up front; FILE_T sends it as a trailer
+        String expectedHash = type.equals("FILE") ? dis.readUTF() : null;
+        String tags = dis.readUTF();
+        receiveFile(uuid, fileName, fileSize, metadata, expectedHash, tags, type.equals("FILE_Z"), dis, null);
+    }
+
+    void updateProgress(String fileName, long bytesDone, long fileSize, ProgressBar progressBar) {
+        double progress = fileSize == 0 ? 1.0 : (double) bytesDone / fileSize;
+        transferProgress.put(fileName, progress);
+        if (progressBar != null) {
+            Platform.runLater(() -> progressBar.setProgress(progress));
+        }
+    }
+
     public void receiveFile(String fileName, long fileSize, String metadata, String expectedHash, String tags, Socket socket, DataInputStream dis, ProgressBar progressBar) {
+        receiveFile(deviceManager.resolvePeer(socket.getInetAddress().getHostAddress()), fileName, fileSize, metadata, expectedHash, tags, false, dis, progressBar);
+    }
+
+    private void receiveFile(String peer, String fileName, long fileSize, String metadata, String expectedHash, String tags, boolean compressed, DataInputStream dis, ProgressBar progressBar) {
         int attempt = 0;
         boolean success = false;
         while (attempt < MAX_RETRIES && !success) {
             try {
                 attempt++;
-                receiveFileInternal(fileName, fileSize, metadata, expectedHash, tags, dis, progressBar);
+                receiveFileInternal(peer, fileName, fileSize, metadata, expectedHash, tags, compressed, dis, progressBar);
                 success = true;
             } catch (Exception e) {
                 if (attempt == MAX_RETRIES) {
+                    receiveFailures.increment();
                     Platform.runLater(() -> notify(getResourceString("transfer_failed")));
                     transferProgress.remove(fileName);
                 }
@@ -168,59 +332,223 @@ public class FileTransferManager {
         }
     }
 
-    private void receiveFileInternal(String fileName, long fileSize, String metadata, String expectedHash, String tags, DataInputStream dis, ProgressBar progressBar) throws Exception {
+    void receiveFileInternal(String peer, String fileName, long fileSize, String metadata, String expectedHash, String tags, boolean compressed, DataInputStream dis, ProgressBar progressBar) throws Exception {
         File saveDir = new File(savePath);
         if (!saveDir.exists()) saveDir.mkdirs();
         
         // Version Management: Backup existing file
         File outputFile = new File(saveDir, fileName);
+        String versionedName = null;
+        long versionedSize = 0;
         if (outputFile.exists()) {
-            String versionedName = fileName + ".v" + System.currentTimeMillis();
+            versionedName = fileName + ".v" + System.currentTimeMillis();
+            versionedSize = outputFile.length();
             File versionedFile = new File(saveDir, versionedName);
             Files.copy(outputFile.toPath(), versionedFile.toPath());
-            databaseManager.logFileVersion(fileName, versionedName, outputFile.length(), expectedHash);
         }
 
+        long startTime = System.nanoTime();
         try (var fos = new FileOutputStream(outputFile);
-             var outChannel = fos.getChannel()) {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
-            long bytesRead = 0;
-            long startTime = System.currentTimeMillis();
-            transferProgress.put(fileName, 0.0);
-            while (bytesRead < fileSize) {
-                int read = dis.read(buffer.array(), 0, Math.min(CHUNK_SIZE, (int)(fileSize - bytesRead)));
-                if (read == -1) break;
-                buffer.limit(read);
-                outChannel.write(buffer);
-                digest.update(buffer.array(), 0, read);
-                bytesRead += read;
-                buffer.clear();
-                double progress = (double) bytesRead / fileSize;
-                transferProgress.put(fileName, progress);
-                Platform.runLater(() -> progressBar.setProgress(progress));
-                throttleTransfer(bytesRead, startTime);
+             var outChannel = fos.getChannel();
+             var decompressor = new BlockDecompressor()) {
+            MessageDigest digest = DigestService.sha256();
+            long hashNanos = 0;
+            ByteBuffer buffer = tlsBufferPool.acquire();
+            try {
+                long bytesRead = 0;
+                BandwidthScheduler.Flow flow = bandwidthScheduler.openFlow(peer, BandwidthScheduler.Priority.NORMAL);
+                transferProgress.put(fileName, 0.0);
+                while (bytesRead < fileSize) {
+                    int read = compressed
+                            ? decompressor.readBlock(dis, buffer.array())
+                            : dis.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), fileSize - bytesRead));
+                    if (read <= 0) break;
+                    buffer.limit(read);
+                    outChannel.write(buffer);
+                    long hashStart = System.nanoTime();
+                    digest.update(buffer.array(), 0, read);
+                    hashNanos += System.nanoTime() - hashStart;
+                    bytesRead += read;
+                    bytesReceived.add(read);
+                    buffer.clear();
+                    updateProgress(fileName, bytesRead, fileSize, progressBar);
+                    flow.acquire(read);
+                }
+                if (compressed && bytesRead == fileSize && decompressor.readBlock(dis, buffer.array()) != 0) {
+                    throw new IOException("Compressed stream longer than " + fileSize + " bytes");
+                }
+            } finally {
+                tlsBufferPool.release(buffer);
             }
             String receivedHash = securityManager.bytesToHex(digest.digest());
+            receiveHashTime.record(hashNanos);
+            if (expectedHash == null) {
+                expectedHash = dis.readUTF();
+            }
             if (!receivedHash.equals(expectedHash)) {
                 Platform.runLater(() -> notify(getResourceString("file_integrity_failed")));
                 outputFile.delete();
                 throw new IOException("Integrity check failed");
             }
-            databaseManager.logTransfer(fileName, "수신", fileSize, metadata);
+            if (versionedName != null) {
+                databaseManager.logFileVersion(fileName, versionedName, versionedSize, receivedHash);
+            }
+            receiveTime.recordSince(startTime);
+            databaseManager.logTransfer(fileName, "수신", fileSize, metadata, peer);
             databaseManager.logTags(fileName, tags);
             databaseManager.logDownload(fileName, metadata);
             databaseManager.logActivity(deviceManager.getUserUUID(), "File received: " + fileName);
             pendingNotifications.merge(fileName, 1, Integer::sum);
             transferProgress.remove(fileName);
             Platform.runLater(() -> {
-                progressBar.setProgress(0);
-                progressBar.setVisible(false);
+                if (progressBar != null) {
+                    progressBar.setProgress(0);
+                    progressBar.setVisible(false);
+                }
                 notify(getResourceString("file_received") + fileName);
             });
         }
     }
 
+    public void startZeroCopyServer() {
+        try (var serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(ZERO_COPY_PORT));
+            zeroCopyServer = serverChannel;
+            while (zeroCopyTransfer) {
+                SocketChannel channel = serverChannel.accept();
+                try {
+                    ticketExecutor.execute(() -> claimZeroCopyTicket(channel));
+                } catch (RejectedExecutionException e) {
+                    closeQuietly(channel);
+                }
+            }
+        } catch (IOException e) {
+            if (zeroCopyTransfer) {
+                Platform.runLater(() -> notify("Zero-copy server error: " + e.getMessage()));
+                databaseManager.logActivity(deviceManager.getUserUUID(), "Zero-copy server error: " + e.getMessage());
+            }
+        } finally {
+            zeroCopyServer = null;
+        }
+    }
+
+    // A connection that does not open with a live ticket is dropped; each ticket admits exactly one connection
+    private void claimZeroCopyTicket(SocketChannel channel) {
+        try {
+            // Channel reads ignore SO_TIMEOUT, but the socket adaptor's stream honours it
+            channel.socket().setSoTimeout(ZERO_COPY_TICKET_READ_TIMEOUT_MS);
+            byte[] ticket = new byte[ZERO_COPY_TICKET_BYTES * 2];
+            new DataInputStream(channel.socket().getInputStream()).readFully(ticket);
+            CompletableFuture<SocketChannel> arrival = zeroCopyTickets.remove(new String(ticket, StandardCharsets.US_ASCII));
+            if (arrival != null && arrival.complete(channel)) return;
+        } catch (IOException e) {
+            // Falls through to close
+        }
+        closeQuietly(channel);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    // Runs on the TLS connection that carried FILE_ZC. The payload lands in a .part file that replaces the
+    // target only after the hash, which comes back over TLS, has matched.
+    private void receiveFileZeroCopy(String uuid, DataInputStream dis, DataOutputStream dos) throws IOException {
+        if (databaseManager.isFileBlocked(uuid)) return;
+        String fileName = new File(dis.readUTF()).getName();
+        long fileSize = dis.readLong();
+        String metadata = dis.readUTF();
+        String tags = dis.readUTF();
+        if (!zeroCopyTransfer || zeroCopyServer == null) {
+            dos.writeUTF("");
+            dos.flush();
+            return;
+        }
+
+        byte[] ticketBytes = new byte[ZERO_COPY_TICKET_BYTES];
+        ticketRandom.nextBytes(ticketBytes);
+        String ticket = DigestService.toHex(ticketBytes);
+        CompletableFuture<SocketChannel> arrival = new CompletableFuture<SocketChannel>()
+                .orTimeout(ZERO_COPY_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        zeroCopyTickets.put(ticket, arrival);
+        File saveDir = new File(savePath);
+        if (!saveDir.exists()) saveDir.mkdirs();
+        File partFile = new File(saveDir, fileName + "." + ticket.substring(0, 8) + ".part");
+        try {
+            dos.writeUTF(ticket);
+            dos.flush();
+            SocketChannel channel;
+            try {
+                channel = arrival.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for zero-copy connection");
+            } catch (ExecutionException e) {
+                throw new IOException("Zero-copy connection for " + fileName + " never arrived", e.getCause());
+            }
+
+            long startTime = System.nanoTime();
+            try (channel;
+                 var outChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                BandwidthScheduler.Flow flow = bandwidthScheduler.openFlow(uuid, BandwidthScheduler.Priority.NORMAL);
+                transferProgress.put(fileName, 0.0);
+                while (position < fileSize) {
+                    long received = outChannel.transferFrom(channel, position, Math.min(ZERO_COPY_CHUNK_SIZE, fileSize - position));
+                    if (received <= 0) break;
+                    position += received;
+                    bytesReceived.add(received);
+                    updateProgress(fileName, position, fileSize, null);
+                    flow.acquire((int) received);
+                }
+                if (position < fileSize) {
+                    throw new IOException("Connection closed after " + position + " of " + fileSize + " bytes");
+                }
+            }
+
+            // The payload never passed through user space, so hash it back from the page cache
+            long hashStart = System.nanoTime();
+            String receivedHash = securityManager.bytesToHex(DigestService.hashFile(partFile.toPath()));
+            receiveHashTime.recordSince(hashStart);
+            boolean valid = receivedHash.equals(dis.readUTF());
+            if (valid) {
+                File outputFile = new File(saveDir, fileName);
+                if (outputFile.exists()) {
+                    String versionedName = fileName + ".v" + System.currentTimeMillis();
+                    Files.copy(outputFile.toPath(), new File(saveDir, versionedName).toPath());
+                    databaseManager.logFileVersion(fileName, versionedName, outputFile.length(), receivedHash);
+                }
+                Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                receiveTime.recordSince(startTime);
+                databaseManager.logTransfer(fileName, "수신", fileSize, metadata, uuid);
+                databaseManager.logTags(fileName, tags);
+                databaseManager.logDownload(fileName, metadata);
+                databaseManager.logActivity(deviceManager.getUserUUID(), "File received (zero-copy): " + fileName);
+                pendingNotifications.merge(fileName, 1, Integer::sum);
+                Platform.runLater(() -> notify(getResourceString("file_received") + fileName));
+            } else {
+                receiveFailures.increment();
+                Platform.runLater(() -> notify(getResourceString("file_integrity_failed")));
+            }
+            dos.writeBoolean(valid);
+            dos.flush();
+        } catch (IOException e) {
+            receiveFailures.increment();
+            Platform.runLater(() -> notify(getResourceString("transfer_failed")));
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Zero-copy receive failed: " + e.getMessage());
+            throw e;
+        } finally {
+            zeroCopyTickets.remove(ticket);
+            Files.deleteIfExists(partFile.toPath());
+            transferProgress.remove(fileName);
+        }
+    }
+
     public void cancelTransfer(String fileName) {
         Future<?> task = transferTasks.remove(fileName);
         if (task != null) {
@@ -231,7 +559,7 @@ public class FileTransferManager {
         }
     }
 
-    private void zipFolder(File folder, File zipFile) throws IOException {
+    void zipFolder(File folder, File zipFile) throws IOException {
         try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile))) {
             zipFolderRecursive(folder, folder.getName(), zos);
         }
@@ -250,51 +578,38 @@ public class FileTransferManager {
         }
     }
 
-    private void throttleTransfer(long bytesRead, long startTime) {
-        long effectiveSpeedLimit = autoBandwidthLimit ? calculateDynamicBandwidthLimit() : transferSpeedLimit;
-        if (effectiveSpeedLimit > 0) {
-            long elapsed = System.currentTimeMillis() - startTime;
-            long expectedTime = (bytesRead * 1000L) / effectiveSpeedLimit;
-            if (elapsed < expectedTime) {
-                try {
-                    Thread.sleep(expectedTime - elapsed);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+    BandwidthScheduler.Flow openFlow(String peer, BandwidthScheduler.Priority priority) {
+        return bandwidthScheduler.openFlow(peer, priority);
     }
 
-    private long calculateDynamicBandwidthLimit() {
-        NetworkIF[] interfaces = systemInfo.getHardware().getNetworkIFs();
-        long totalBytesPerSec = 0;
+    // Samples every interface across one shared interval; only the monitor thread ever calls this
+    private long calculateDynamicBandwidthLimit() throws InterruptedException {
+        List<NetworkIF> interfaces = systemInfo.getHardware().getNetworkIFs();
+        long before = 0;
         for (NetworkIF nif : interfaces) {
-            long bytesSent = nif.getBytesSent();
-            long bytesRecv = nif.getBytesRecv();
-            try {
-                Thread.sleep(1000);
-                nif.updateAttributes();
-                long newBytesSent = nif.getBytesSent();
-                long newBytesRecv = nif.getBytesRecv();
-                totalBytesPerSec += (newBytesSent - bytesSent) + (newBytesRecv - bytesRecv);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            before += nif.getBytesSent() + nif.getBytesRecv();
+        }
+        Thread.sleep(1000);
+        long after = 0;
+        for (NetworkIF nif : interfaces) {
+            nif.updateAttributes();
+            after += nif.getBytesSent() + nif.getBytesRecv();
         }
-        return Math.max(1024, totalBytesPerSec / 2);
+        return Math.max(1024, (after - before) / 2);
     }
 
     private void startBandwidthMonitor() {
         new Thread(() -> {
             while (autoBandwidthLimit) {
-                transferSpeedLimit = calculateDynamicBandwidthLimit();
                 try {
+                    long limit = calculateDynamicBandwidthLimit();
+                    if (autoBandwidthLimit) bandwidthScheduler.setRate(limit);
                     Thread.sleep(5000);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
             }
-        }).start();
+        }, "bandwidth-monitor").start();
     }
 
     public void enableAutoBandwidthLimit() {
@@ -304,7 +619,40 @@ public class FileTransferManager {
 
     public void disableAutoBandwidthLimit() {
         autoBandwidthLimit = false;
-        transferSpeedLimit = 0;
+        bandwidthScheduler.setRate(0);
+    }
+
+    public boolean isAutoEnabled() {
+        return autoBandwidthLimit;
+    }
+
+    public void setPeerBandwidthWeight(String peer, int weight) {
+        bandwidthScheduler.setPeerWeight(deviceManager.resolvePeer(peer), weight);
+    }
+
+    public void setZeroCopyTransfer(boolean enabled) {
+        zeroCopyTransfer = enabled;
+        if (enabled && zeroCopyServer == null) {
+            new Thread(this::startZeroCopyServer).start();
+        } else if (!enabled && zeroCopyServer != null) {
+            try {
+                zeroCopyServer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public boolean isZeroCopyTransfer() {
+        return zeroCopyTransfer;
+    }
+
+    public void setCompressTransfers(boolean enabled) {
+        compressTransfers = enabled;
+    }
+
+    public boolean isCompressTransfers() {
+        return compressTransfers;
     }
 
     public Map<String, Double> getTransferProgress() {
@@ -320,7 +668,9 @@ public class FileTransferManager {
     }
 
     public void setTransferSpeedLimit(long limit) {
-        transferSpeedLimit = limit;
+        if (!autoBandwidthLimit) {
+            bandwidthScheduler.setRate(limit);
+        }
     }
 
     public String getSavePath() {
@@ -332,19 +682,32 @@ public class FileTransferManager {
     }
 
     public void startAutoBackup() {
-        new Thread(() -> {
+        // Each run only appends what changed since the last one, on a background-priority thread
+        Thread backupThread = new Thread(() -> {
+            File backupDir = new File(savePath, "backups");
             while (true) {
                 try {
-                    String backupPath = savePath + "/backup_" + System.currentTimeMillis() + ".csv";
-                    databaseManager.exportBackup(backupPath);
-                    databaseManager.logActivity(deviceManager.getUserUUID(), "Backup created: " + backupPath);
-                    Platform.runLater(() -> notify(getResourceString("auto_backup_completed") + backupPath));
-                    Thread.sleep(3600000);
+                    File backup = databaseManager.backupIncremental(backupDir);
+                    if (backup != null) {
+                        String backupPath = backup.getPath();
+                        databaseManager.logActivity(deviceManager.getUserUUID(), "Backup created: " + backupPath);
+                        Platform.runLater(() -> notify(getResourceString("auto_backup_completed") + backupPath));
+                    }
+                } catch (InterruptedException e) {
+                    return;
                 } catch (Exception e) {
                     Platform.runLater(() -> notify("Backup error: " + e.getMessage()));
                 }
+                try {
+                    Thread.sleep(3600000);
+                } catch (InterruptedException e) {
+                    return;
+                }
             }
-        }).start();
+        }, "auto-backup");
+        backupThread.setDaemon(true);
+        backupThread.setPriority(Thread.MIN_PRIORITY);
+        backupThread.start();
     }
 
     public Map<String, Integer> getPendingNotifications() {
@@ -0,0 +1,259 @@
+package filesharing.main;
+
+import javafx.application.Platform;
+import javafx.scene.control.ProgressBar;
+import java.io.*;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FolderTransferManager {
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final byte ENTRY_END = 0;
+    private static final byte ENTRY_DIRECTORY = 1;
+    private static final byte ENTRY_FILE = 2;
+    private static final BufferPool blockBufferPool = new BufferPool(BLOCK_SIZE, 16, false);
+    private static final MetricsRegistry.Counter transferBytesSent = MetricsRegistry.counter("transfer_bytes_sent");
+    private static final MetricsRegistry.Counter transferBytesReceived = MetricsRegistry.counter("transfer_bytes_received");
+    private final DeviceManager deviceManager;
+    private final DatabaseManager databaseManager;
+    private final SecurityManager securityManager;
+    private final FileTransferManager fileTransferManager;
+
+    public FolderTransferManager(DeviceManager deviceManager, DatabaseManager databaseManager, SecurityManager securityManager, FileTransferManager fileTransferManager) {
+        this.deviceManager = deviceManager;
+        this.databaseManager = databaseManager;
+        this.securityManager = securityManager;
+        this.fileTransferManager = fileTransferManager;
+        deviceManager.registerConnectionHandler("FOLDER", (uuid, dis, dos) -> receiveFolder(uuid, dis, dos));
+    }
+
+    // Returns false when the peer does not understand FOLDER, so the caller can fall back to a zip
+    public boolean sendFolder(File folder, String address, String tags, ProgressBar progressBar) throws Exception {
+        Path root = folder.toPath();
+        String folderName = folder.getName();
+        long totalSize = folderSize(root);
+        try (var channel = deviceManager.openChannel(address, "FILE")) {
+            var dos = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream(), 64 * 1024));
+            var dis = new DataInputStream(channel.getInputStream());
+            dos.writeUTF(deviceManager.getUserUUID());
+            dos.writeUTF("FOLDER");
+            dos.writeUTF(folderName);
+            dos.writeLong(totalSize);
+            dos.writeUTF(tags);
+            dos.flush();
+            try {
+                // A peer without FOLDER support closes the connection instead of accepting the header
+                if (!dis.readBoolean()) throw new IOException("Peer refused folder " + folderName);
+            } catch (EOFException | SocketException e) {
+                return false;
+            }
+
+            AtomicLong bytesSent = new AtomicLong();
+            long startTime = System.currentTimeMillis();
+            BandwidthScheduler.Flow flow = fileTransferManager.openFlow(deviceManager.resolvePeer(address), BandwidthScheduler.Priority.NORMAL);
+            MessageDigest digest = DigestService.sha256();
+            ByteBuffer buffer = blockBufferPool.acquire();
+            int[] fileCount = new int[1];
+            long[] compressionTotals = new long[3];
+            // Entries are always block-framed; the codec only switches to deflate when the receiver advertises it
+            boolean compress = fileTransferManager.isCompressTransfers() && deviceManager.supportsCompression(address);
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        if (!dir.equals(root)) {
+                            dos.writeByte(ENTRY_DIRECTORY);
+                            dos.writeUTF(relativePath(root, dir));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                        dos.writeByte(ENTRY_FILE);
+                        dos.writeUTF(relativePath(root, file));
+                        dos.writeLong(attrs.size());
+                        digest.reset();
+                        try (var inChannel = FileChannel.open(file, StandardOpenOption.READ);
+                             var compressor = new BlockCompressor(file.getFileName().toString(), compress)) {
+                            long remaining = attrs.size();
+                            while (remaining > 0) {
+                                buffer.clear();
+                                buffer.limit((int) Math.min(BLOCK_SIZE, remaining));
+                                int read = inChannel.read(buffer);
+                                if (read == -1) break;
+                                digest.update(buffer.array(), 0, read);
+                                compressor.writeBlock(dos, buffer.array(), read);
+                                remaining -= read;
+                                long sent = bytesSent.addAndGet(read);
+                                transferBytesSent.add(read);
+                                fileTransferManager.updateProgress(folderName, sent, totalSize, progressBar);
+                                flow.acquire(read);
+                            }
+                            if (remaining > 0) throw new IOException("File changed during transfer: " + file);
+                            compressor.finish(dos);
+                            compressionTotals[0] += compressor.getRawBytes();
+                            compressionTotals[1] += compressor.getWireBytes();
+                            compressionTotals[2] += compressor.getCpuNanos();
+                        }
+                        dos.writeUTF(securityManager.bytesToHex(digest.digest()));
+                        fileCount[0]++;
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                dos.writeByte(ENTRY_END);
+                dos.flush();
+            } finally {
+                blockBufferPool.release(buffer);
+            }
+
+            if (!dis.readBoolean()) throw new IOException("Peer rejected folder " + folderName);
+
+            String metadata = String.format("Folder: %d files, %d bytes", fileCount[0], totalSize);
+            databaseManager.logTransfer(folderName, "전송", totalSize, metadata, deviceManager.resolvePeer(address));
+            databaseManager.logTags(folderName, tags);
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Folder sent: " + folderName);
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Compression for " + folderName + ": "
+                    + BlockCompressor.summary(compressionTotals[0], compressionTotals[1], compressionTotals[2], System.currentTimeMillis() - startTime));
+            return true;
+        }
+    }
+
+    private void receiveFolder(String uuid, DataInputStream dis, DataOutputStream dos) throws IOException {
+        if (databaseManager.isFileBlocked(uuid)) return;
+        String folderName = new File(dis.readUTF()).getName();
+        long totalSize = dis.readLong();
+        String tags = dis.readUTF();
+
+        // getName() passes "." and ".." through, which would put the root at or above the save directory
+        Path saveDir = Paths.get(fileTransferManager.getSavePath()).toAbsolutePath().normalize();
+        Path root = saveDir.resolve(folderName).normalize();
+        if (folderName.isEmpty() || folderName.equals(".") || folderName.equals("..")
+                || !root.startsWith(saveDir) || root.equals(saveDir)) {
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Refused folder with illegal name: " + folderName);
+            dos.writeBoolean(false);
+            dos.flush();
+            return;
+        }
+        Files.createDirectories(root);
+        dos.writeBoolean(true);
+        dos.flush();
+
+        boolean allValid = true;
+        int fileCount = 0;
+        long bytesReceived = 0;
+        BandwidthScheduler.Flow flow = fileTransferManager.openFlow(uuid, BandwidthScheduler.Priority.NORMAL);
+        MessageDigest digest = DigestService.sha256();
+        BlockDecompressor decompressor = new BlockDecompressor();
+        byte[] raw = new byte[BLOCK_SIZE];
+        try {
+            while (true) {
+                byte entryType = dis.readByte();
+                if (entryType == ENTRY_END) break;
+                Path target = resolveEntry(root, dis.readUTF());
+                if (entryType == ENTRY_DIRECTORY) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                if (entryType != ENTRY_FILE) throw new IOException("Unknown folder entry type: " + entryType);
+
+                long size = dis.readLong();
+                Files.createDirectories(target.getParent());
+                // A unique temp name, so it can never be another entry of the same folder
+                Path partFile = Files.createTempFile(target.getParent(), ".recv-", ".tmp");
+                try {
+                    digest.reset();
+                    long written = 0;
+                    try (var out = new BufferedOutputStream(Files.newOutputStream(partFile), 64 * 1024)) {
+                        int rawLength;
+                        while ((rawLength = decompressor.readBlock(dis, raw)) > 0) {
+                            digest.update(raw, 0, rawLength);
+                            out.write(raw, 0, rawLength);
+                            written += rawLength;
+                            bytesReceived += rawLength;
+                            transferBytesReceived.add(rawLength);
+                            fileTransferManager.updateProgress(folderName, bytesReceived, totalSize, null);
+                            flow.acquire(rawLength);
+                        }
+                    }
+                    String expectedHash = dis.readUTF();
+                    if (written != size || !securityManager.bytesToHex(digest.digest()).equals(expectedHash)) {
+                        allValid = false;
+                        databaseManager.logActivity(deviceManager.getUserUUID(), "Folder entry failed verification: " + root.relativize(target));
+                        continue;
+                    }
+                    if (Files.exists(target)) {
+                        String versionedName = target.getFileName() + ".v" + System.currentTimeMillis();
+                        Files.copy(target, target.resolveSibling(versionedName));
+                        databaseManager.logFileVersion(root.relativize(target).toString(), versionedName, Files.size(target), expectedHash);
+                    }
+                    Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    // Gone once moved into place; otherwise a failed or interrupted entry leaves nothing behind
+                    Files.deleteIfExists(partFile);
+                }
+                fileCount++;
+            }
+        } finally {
+            decompressor.close();
+            fileTransferManager.getTransferProgress().remove(folderName);
+        }
+        boolean valid = allValid;
+        dos.writeBoolean(valid);
+        dos.flush();
+
+        if (!valid) {
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Folder receive failed verification: " + folderName
+                    + " (" + fileCount + " files kept)");
+            Platform.runLater(() -> notify(getResourceString("file_integrity_failed") + folderName));
+            return;
+        }
+        String metadata = String.format("Folder: %d files, %d bytes", fileCount, bytesReceived);
+        databaseManager.logTransfer(folderName, "수신", bytesReceived, metadata, uuid);
+        databaseManager.logTags(folderName, tags);
+        databaseManager.logDownload(folderName, metadata);
+        databaseManager.logActivity(deviceManager.getUserUUID(), "Folder received: " + folderName);
+        fileTransferManager.getPendingNotifications().merge(folderName, 1, Integer::sum);
+        Platform.runLater(() -> notify(getResourceString("file_received") + folderName));
+    }
+
+    // Entry paths come from the network; refuse anything that would escape the folder root
+    private Path resolveEntry(Path root, String relativePath) throws IOException {
+        Path resolved = root.resolve(relativePath).normalize();
+        if (!resolved.startsWith(root) || resolved.equals(root)) {
+            throw new IOException("Illegal folder entry: " + relativePath);
+        }
+        return resolved;
+    }
+
+    private String relativePath(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private long folderSize(Path root) throws IOException {
+        long[] total = new long[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    private String getResourceString(String key) {
+        return ResourceBundle.getBundle("messages", Locale.getDefault()).getString(key);
+    }
+
+    private void notify(String message) {
+        Platform.runLater(() -> System.out.println(message));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,264 @@
+package filesharing.main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class IncrementalBackup {
+    private static final int MAGIC = 0x46534231;
+    private static final String INDEX_FILE = "backup.index";
+    private static final String FILE_PREFIX = "backup_";
+    private static final String FILE_SUFFIX = ".fsb.gz";
+    private static final int PAGE_ROWS = 2000;
+    // Pause between pages so a large first backup yields the disk and the writer to foreground work
+    private static final long PAGE_PAUSE_MS = 5;
+    private static final byte SECTION_END = 0;
+    private static final byte ROW = 1;
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_LONG = 1;
+    private static final byte VALUE_DOUBLE = 2;
+    private static final byte VALUE_TEXT = 3;
+    private static final byte VALUE_BLOB = 4;
+    private final File directory;
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+
+    private static class Source {
+        private final String table;
+        private final SqliteDatabase database;
+        private final String[] columns;
+
+        private Source(String table, SqliteDatabase database, String[] columns) {
+            this.table = table;
+            this.database = database;
+            this.columns = columns;
+        }
+    }
+
+    // Default deflate spends most of a first backup compressing; the fastest level is close in size on log rows
+    public static class RestoreResult {
+        public final long restored;
+        public final long skipped;
+
+        private RestoreResult(long restored, long skipped) {
+            this.restored = restored;
+            this.skipped = skipped;
+        }
+    }
+
+    private static class FastGzipOutputStream extends GZIPOutputStream {
+        private FastGzipOutputStream(OutputStream out) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    public IncrementalBackup(File directory) {
+        this.directory = directory;
+    }
+
+    // The first column is the table's rowid or INTEGER PRIMARY KEY; backups resume after the last one exported
+    public void addTable(String table, SqliteDatabase database, String... columns) {
+        sources.put(table, new Source(table, database, columns));
+    }
+
+    // Writes the rows added since the previous run to a new gzip file; returns null when nothing changed
+    public File backup() throws IOException, SQLException, InterruptedException {
+        Files.createDirectories(directory.toPath());
+        Properties index = loadIndex();
+        File target = new File(directory, FILE_PREFIX + System.currentTimeMillis() + FILE_SUFFIX);
+        File temp = new File(directory, target.getName() + ".tmp");
+        long rows = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FastGzipOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(sources.size());
+            for (Source source : sources.values()) {
+                long lastKey = startKey(source, Long.parseLong(index.getProperty(source.table, "0")));
+                out.writeUTF(source.table);
+                out.writeInt(source.columns.length);
+                for (String column : source.columns) {
+                    out.writeUTF(column);
+                }
+                while (true) {
+                    int page = 0;
+                    try (Connection conn = source.database.reader();
+                         PreparedStatement pstmt = conn.prepareStatement("SELECT " + String.join(", ", source.columns) + " FROM " + source.table
+                                 + " WHERE " + source.columns[0] + " > ? ORDER BY " + source.columns[0] + " LIMIT " + PAGE_ROWS)) {
+                        pstmt.setLong(1, lastKey);
+                        ResultSet rs = pstmt.executeQuery();
+                        while (rs.next()) {
+                            out.writeByte(ROW);
+                            for (int i = 1; i <= source.columns.length; i++) {
+                                writeValue(out, rs.getObject(i));
+                            }
+                            lastKey = rs.getLong(1);
+                            page++;
+                        }
+                    }
+                    rows += page;
+                    if (page < PAGE_ROWS) break;
+                    Thread.sleep(PAGE_PAUSE_MS);
+                }
+                out.writeByte(SECTION_END);
+                index.setProperty(source.table, Long.toString(lastKey));
+            }
+        } catch (IOException | SQLException | InterruptedException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        if (rows == 0) {
+            Files.delete(temp.toPath());
+            return null;
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        saveIndex(index);
+        return target;
+    }
+
+    // Replays every backup file in order. Keys are left to the target table, since a store that has logged rows
+    // since the backup hands out the same ones; a row whose other columns all match an existing row counts as
+    // already present, so replaying twice inserts nothing new. skipBefore maps a table to a timestamp; its rows
+    // older than that are left out. Both kinds of skipped row are counted
+    public RestoreResult restore(Map<String, Long> skipBefore) throws IOException, SQLException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) return new RestoreResult(0, 0);
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        long[] counts = new long[2];
+        for (File file : files) {
+            restore(file, skipBefore, counts);
+        }
+        return new RestoreResult(counts[0], counts[1]);
+    }
+
+    // counts[0] collects inserted rows, counts[1] skipped ones
+    private void restore(File file, Map<String, Long> skipBefore, long[] counts) throws IOException, SQLException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 64 * 1024)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a backup file: " + file);
+            in.readLong();
+            int sections = in.readInt();
+            for (int s = 0; s < sections; s++) {
+                String table = in.readUTF();
+                String[] columns = new String[in.readInt()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = in.readUTF();
+                }
+                Source source = sources.get(table);
+                if (source == null) throw new IOException("Unknown table in backup: " + table);
+                long cutoff = skipBefore.getOrDefault(table, 0L);
+                int timestampColumn = Arrays.asList(columns).indexOf("timestamp");
+                List<String> values = Arrays.asList(columns).subList(1, columns.length);
+                List<String> matches = new ArrayList<>();
+                for (String column : values) {
+                    matches.add(column + " IS ?");
+                }
+                String sql = "INSERT INTO " + table + " (" + String.join(", ", values) + ") SELECT "
+                        + String.join(", ", Collections.nCopies(values.size(), "?"))
+                        + " WHERE NOT EXISTS (SELECT 1 FROM " + table + " WHERE " + String.join(" AND ", matches) + ")";
+                boolean more = true;
+                while (more) {
+                    // One transaction per page keeps the writer free for the log writers in between
+                    try (Connection conn = source.database.writer();
+                         PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        conn.setAutoCommit(false);
+                        int page = 0;
+                        Object[] row = new Object[columns.length];
+                        while (page < PAGE_ROWS && (more = in.readByte() == ROW)) {
+                            for (int i = 0; i < columns.length; i++) {
+                                row[i] = readValue(in);
+                            }
+                            page++;
+                            if (timestampColumn >= 0 && row[timestampColumn] instanceof Long && (Long) row[timestampColumn] < cutoff) {
+                                counts[1]++;
+                                continue;
+                            }
+                            for (int i = 1; i < columns.length; i++) {
+                                pstmt.setObject(i, row[i]);
+                                pstmt.setObject(i + values.size(), row[i]);
+                            }
+                            pstmt.addBatch();
+                        }
+                        for (int inserted : pstmt.executeBatch()) {
+                            counts[inserted > 0 ? 0 : 1]++;
+                        }
+                        conn.commit();
+                    }
+                }
+            }
+        }
+    }
+
+    // A table emptied by retention starts handing out rowids from 1 again, so the checkpoint is dropped
+    private long startKey(Source source, long checkpoint) throws SQLException {
+        try (Connection conn = source.database.reader()) {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT MAX(" + source.columns[0] + ") FROM " + source.table);
+            long max = rs.next() ? rs.getLong(1) : 0;
+            return max < checkpoint ? 0 : checkpoint;
+        }
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof Integer || value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(VALUE_BLOB);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            // writeUTF caps at 64KB, so text carries an int length
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(VALUE_TEXT);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_LONG:
+                return in.readLong();
+            case VALUE_DOUBLE:
+                return in.readDouble();
+            case VALUE_TEXT:
+            case VALUE_BLOB:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return type == VALUE_TEXT ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+            default:
+                throw new IOException("Corrupt backup value type: " + type);
+        }
+    }
+
+    private Properties loadIndex() throws IOException {
+        Properties index = new Properties();
+        File file = new File(directory, INDEX_FILE);
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                index.load(in);
+            }
+        }
+        return index;
+    }
+
+    private void saveIndex(Properties index) throws IOException {
+        File temp = new File(directory, INDEX_FILE + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            index.store(out, "Last exported key per table");
+        }
+        Files.move(temp.toPath(), new File(directory, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
\ No newline at end of file
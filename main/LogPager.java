@@ -0,0 +1,169 @@
+package filesharing.main;
+
+import javafx.application.Platform;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class LogPager {
+    private static final int PAGE_SIZE = 200;
+    private static final int PREFETCH_ROWS = 50;
+    private static final ExecutorService pageExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-pager");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SqliteDatabase database;
+    private final String table;
+    private final String timestampColumn;
+    private final List<String> conditions = new ArrayList<>();
+    private final List<Object> params = new ArrayList<>();
+    private boolean ranged = false;
+    private RowFormatter formatter;
+    private ListView<String> view;
+    // Only touched on the FX thread
+    private long lastKey = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MAX_VALUE;
+    private boolean loading = false;
+    private boolean exhausted = false;
+    private int generation = 0;
+
+    public interface RowFormatter {
+        String format(ResultSet rs) throws SQLException;
+    }
+
+    // timestampColumn holds epoch millis; pass null for tables without one
+    public LogPager(SqliteDatabase database, String table, String timestampColumn) {
+        this.database = database;
+        this.table = table;
+        this.timestampColumn = timestampColumn;
+    }
+
+    // Filters are pushed into the WHERE clause; empty values are ignored
+    public LogPager whereEquals(String column, String value) {
+        if (value != null && !value.isEmpty()) {
+            conditions.add(column + " = ?");
+            params.add(value);
+        }
+        return this;
+    }
+
+    public LogPager whereContains(String column, String value) {
+        if (value != null && !value.isEmpty()) {
+            conditions.add(column + " LIKE ? ESCAPE '\\'");
+            params.add("%" + value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        return this;
+    }
+
+    public LogPager whereBetween(Long fromMillis, Long toMillis) {
+        if (timestampColumn == null) return this;
+        if (fromMillis != null) {
+            conditions.add(timestampColumn + " >= ?");
+            params.add(fromMillis);
+            ranged = true;
+        }
+        if (toMillis != null) {
+            conditions.add(timestampColumn + " < ?");
+            params.add(toMillis);
+            ranged = true;
+        }
+        return this;
+    }
+
+    public LogPager clearFilters() {
+        conditions.clear();
+        params.clear();
+        ranged = false;
+        return this;
+    }
+
+    // Rows are fetched newest first in pages keyed on rowid, or on (timestamp, rowid) when a time range is set so
+    // the timestamp index serves both the range and the order; the next page is requested when a cell
+    // near the end of what is loaded gets rendered, so only what the user scrolls through is ever read
+    public void attach(ListView<String> view, RowFormatter formatter) {
+        this.view = view;
+        this.formatter = formatter;
+        view.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+                if (!empty && getIndex() >= list.getItems().size() - PREFETCH_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
+        reload();
+    }
+
+    public void reload() {
+        generation++;
+        lastKey = Long.MAX_VALUE;
+        lastTimestamp = Long.MAX_VALUE;
+        loading = false;
+        exhausted = false;
+        view.getItems().clear();
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (loading || exhausted) return;
+        loading = true;
+        int pageGeneration = generation;
+        long afterKey = lastKey;
+        long afterTimestamp = lastTimestamp;
+        boolean byTimestamp = ranged;
+        String sql = buildQuery(byTimestamp);
+        List<Object> args = new ArrayList<>(params);
+        if (byTimestamp) args.add(afterTimestamp);
+        args.add(afterKey);
+        args.add(PAGE_SIZE);
+        pageExecutor.execute(() -> {
+            List<String> rows = new ArrayList<>(PAGE_SIZE);
+            long pageLastKey = afterKey;
+            long pageLastTimestamp = afterTimestamp;
+            try (Connection conn = database.reader();
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < args.size(); i++) {
+                    pstmt.setObject(i + 1, args.get(i));
+                }
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    rows.add(formatter.format(rs));
+                    pageLastKey = rs.getLong("log_key");
+                    if (byTimestamp) pageLastTimestamp = rs.getLong("log_time");
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            long nextKey = pageLastKey;
+            long nextTimestamp = pageLastTimestamp;
+            Platform.runLater(() -> {
+                if (pageGeneration != generation) return;
+                lastKey = nextKey;
+                lastTimestamp = nextTimestamp;
+                exhausted = rows.size() < PAGE_SIZE;
+                loading = false;
+                view.getItems().addAll(rows);
+            });
+        });
+    }
+
+    private String buildQuery(boolean byTimestamp) {
+        StringBuilder sql = new StringBuilder("SELECT rowid AS log_key, ");
+        if (byTimestamp) sql.append(timestampColumn).append(" AS log_time, ");
+        sql.append("* FROM ").append(table).append(" WHERE ");
+        for (String condition : conditions) {
+            sql.append(condition).append(" AND ");
+        }
+        if (byTimestamp) {
+            return sql.append("(").append(timestampColumn).append(", rowid) < (?, ?) ORDER BY ")
+                    .append(timestampColumn).append(" DESC, rowid DESC LIMIT ?").toString();
+        }
+        return sql.append("rowid < ? ORDER BY rowid DESC LIMIT ?").toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,182 @@
+package filesharing.main;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class LogRetention {
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long HOUR_MS = 60L * 60 * 1000;
+    private static final int BATCH_ROWS = 5000;
+    private static final long BATCH_PAUSE_MS = 200;
+    private static final int VACUUM_PAGES = 256;
+    // Converting an older file to incremental auto_vacuum needs one full VACUUM, which holds the writer
+    // for its whole run; past this size the freed pages stay on the freelist and are reused instead
+    private static final long MAX_CONVERT_BYTES = 256L * 1024 * 1024;
+    private static final long INITIAL_DELAY_MINUTES = 1;
+    private static final long INTERVAL_HOURS = 6;
+    // Every row older than this watermark has been rolled up and deleted. It lives in the store's settings table,
+    // so a restore after a restart still knows which history only survives as rollups
+    private static final String PURGED_BEFORE = "purged_before.";
+    private static final String MARK_PURGED_SQL = "INSERT INTO settings (name, value) VALUES (?, ?) "
+            + "ON CONFLICT (name) DO UPDATE SET value = max(CAST(value AS INTEGER), CAST(excluded.value AS INTEGER))";
+    private final List<Policy> policies = new ArrayList<>();
+    private final Map<String, Long> ttlDays = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean started = false;
+
+    private static class Policy {
+        private final String table;
+        private final String file;
+        private final SqliteDatabase database;
+        private final String rollupSql;
+
+        private Policy(String table, String file, String rollupSql) {
+            this.table = table;
+            this.file = file;
+            this.database = SqliteDatabase.get(file);
+            this.rollupSql = rollupSql;
+        }
+    }
+
+    // rollupSql aggregates every row of the table with timestamp < ? into its rollup table, as an upsert
+    public void addPolicy(String table, String file, long defaultTtlDays, String rollupSql) {
+        policies.add(new Policy(table, file, rollupSql));
+        ttlDays.putIfAbsent(table, defaultTtlDays);
+    }
+
+    // 0 keeps the table forever
+    public void setTtlDays(String table, long days) {
+        ttlDays.put(table, Math.max(0, days));
+    }
+
+    public long getTtlDays(String table) {
+        return ttlDays.getOrDefault(table, 0L);
+    }
+
+    // 0 when nothing has been purged from the table
+    public long purgedBefore(String table) throws SQLException {
+        for (Policy policy : policies) {
+            if (!policy.table.equals(table)) continue;
+            try (Connection conn = policy.database.reader();
+                 PreparedStatement pstmt = conn.prepareStatement("SELECT CAST(value AS INTEGER) FROM settings WHERE name = ?")) {
+                pstmt.setString(1, PURGED_BEFORE + table);
+                ResultSet rs = pstmt.executeQuery();
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+        return 0;
+    }
+
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        scheduler.scheduleWithFixedDelay(this::runOnce, INITIAL_DELAY_MINUTES * 60, INTERVAL_HOURS * 60 * 60, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    void runOnce() {
+        for (Policy policy : policies) {
+            long days = getTtlDays(policy.table);
+            if (days <= 0) continue;
+            try {
+                long purged = purge(policy, System.currentTimeMillis() - days * DAY_MS);
+                if (purged > 0) compact(policy);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Works oldest-first in batches of about BATCH_ROWS; each batch rolls up and deletes in one short
+    // transaction, then releases the writer so the log writers get in between batches
+    private long purge(Policy policy, long cutoff) throws SQLException, InterruptedException {
+        long purged = 0;
+        while (true) {
+            long batchCutoff;
+            try (Connection conn = policy.database.reader()) {
+                PreparedStatement pstmt = conn.prepareStatement("SELECT timestamp FROM " + policy.table
+                        + " WHERE timestamp < ? ORDER BY timestamp LIMIT 1 OFFSET " + (BATCH_ROWS - 1));
+                pstmt.setLong(1, cutoff);
+                ResultSet rs = pstmt.executeQuery();
+                batchCutoff = rs.next() ? Math.min(cutoff, rs.getLong(1) + 1) : cutoff;
+            }
+            int deleted;
+            try (Connection conn = policy.database.writer()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement rollup = conn.prepareStatement(policy.rollupSql)) {
+                    rollup.setLong(1, batchCutoff);
+                    rollup.executeUpdate();
+                }
+                try (PreparedStatement delete = conn.prepareStatement("DELETE FROM " + policy.table + " WHERE timestamp < ?")) {
+                    delete.setLong(1, batchCutoff);
+                    deleted = delete.executeUpdate();
+                }
+                if (deleted > 0) {
+                    try (PreparedStatement mark = conn.prepareStatement(MARK_PURGED_SQL)) {
+                        mark.setString(1, PURGED_BEFORE + policy.table);
+                        mark.setLong(2, batchCutoff);
+                        mark.executeUpdate();
+                    }
+                }
+                conn.commit();
+            }
+            purged += deleted;
+            if (batchCutoff >= cutoff || deleted == 0) break;
+            Thread.sleep(BATCH_PAUSE_MS);
+        }
+        return purged;
+    }
+
+    private void compact(Policy policy) throws SQLException, InterruptedException {
+        if (!isIncremental(policy)) {
+            if (new File(policy.file).length() > MAX_CONVERT_BYTES) return;
+            try (Connection conn = policy.database.writer()) {
+                conn.createStatement().execute("PRAGMA auto_vacuum = INCREMENTAL");
+                conn.createStatement().execute("VACUUM");
+            }
+            return;
+        }
+        long previous = Long.MAX_VALUE;
+        while (true) {
+            try (Connection conn = policy.database.writer()) {
+                ResultSet rs = conn.createStatement().executeQuery("PRAGMA freelist_count");
+                long free = rs.next() ? rs.getLong(1) : 0;
+                if (free == 0 || free >= previous) return;
+                previous = free;
+                // The pragma frees one page per step; execute() stops after the first, executeUpdate() runs it out
+                conn.createStatement().executeUpdate("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")");
+            }
+            Thread.sleep(BATCH_PAUSE_MS);
+        }
+    }
+
+    private boolean isIncremental(Policy policy) throws SQLException {
+        try (Connection conn = policy.database.reader()) {
+            ResultSet rs = conn.createStatement().executeQuery("PRAGMA auto_vacuum");
+            return rs.next() && rs.getInt(1) == 2;
+        }
+    }
+
+    static String hourBucket(String column) {
+        return "(" + column + " / " + HOUR_MS + ") * " + HOUR_MS;
+    }
+
+    static String dayBucket(String column) {
+        return "(" + column + " / " + DAY_MS + ") * " + DAY_MS;
+    }
+}
\ No newline at end of file
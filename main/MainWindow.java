@@ -1,5 +1,6 @@
 package filesharing.main;
 
+import filesharing.sync.SyncTab;
 import javafx.application.Platform;
 import javafx.scene.control.Tab;
 import java.io.IOException;
@@ -41,4 +42,9 @@ public class MainWindow {
         }
         return tab;
     }
+
+    // Shares this window's managers, so sync settings and handlers are the ones the rest of the app uses
+    public Tab createSyncTab() {
+        return new SyncTab(deviceManager, securityManager, fileTransferManager, databaseManager).createTab();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package filesharing.main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class MetricsRegistry {
+    private static final String EXPORT_PREFIX = "filesharing_";
+    private static final double[] EXPORT_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    // Callers keep the returned instance in a static field, so the map is only touched once per metric
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, Histogram::new);
+    }
+
+    public static Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        return values;
+    }
+
+    public static Map<String, Histogram.Snapshot> histogramSnapshots() {
+        Map<String, Histogram.Snapshot> snapshots = new TreeMap<>();
+        histograms.forEach((name, histogram) -> snapshots.put(name, histogram.snapshot()));
+        return snapshots;
+    }
+
+    // Prometheus text format, so the file can be served by node_exporter's textfile collector as is
+    public static void export(File file) throws IOException {
+        StringBuilder out = new StringBuilder();
+        counterValues().forEach((name, value) -> {
+            out.append("# TYPE ").append(EXPORT_PREFIX).append(name).append(" counter\n");
+            out.append(EXPORT_PREFIX).append(name).append(' ').append(value).append('\n');
+        });
+        histogramSnapshots().forEach((name, snapshot) -> {
+            out.append("# TYPE ").append(EXPORT_PREFIX).append(name).append(" summary\n");
+            for (double quantile : EXPORT_QUANTILES) {
+                out.append(EXPORT_PREFIX).append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(snapshot.percentile(quantile)).append('\n');
+            }
+            out.append(EXPORT_PREFIX).append(name).append("_sum ").append(snapshot.getSum()).append('\n');
+            out.append(EXPORT_PREFIX).append(name).append("_count ").append(snapshot.getCount()).append('\n');
+        });
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), out.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static final class Counter {
+        private final String name;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    // Log-linear buckets: 8 per power of two, so any recorded value is reported within 12.5% of itself
+    // across the whole long range in a fixed 488-slot array. Recording is two adds and a bucket increment.
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram(String name) {
+            this.name = name;
+        }
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucketIndex(value));
+            sum.add(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        // For durations measured with System.nanoTime()
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new Snapshot(counts, sum.sum(), max.get());
+        }
+
+        private static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // The largest value that lands in the bucket, so percentiles never under-report
+        private static long bucketUpperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int shift = index / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        public static final class Snapshot {
+            private final long[] counts;
+            private final long count;
+            private final long sum;
+            private final long max;
+
+            private Snapshot(long[] counts, long sum, long max) {
+                this.counts = counts;
+                long total = 0;
+                for (long bucket : counts) {
+                    total += bucket;
+                }
+                this.count = total;
+                this.sum = sum;
+                this.max = max;
+            }
+
+            public long getCount() {
+                return count;
+            }
+
+            public long getSum() {
+                return sum;
+            }
+
+            public long getMax() {
+                return max;
+            }
+
+            public double getMean() {
+                return count == 0 ? 0 : (double) sum / count;
+            }
+
+            public long percentile(double quantile) {
+                if (count == 0) return 0;
+                long rank = Math.max(1, (long) Math.ceil(quantile * count));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) return Math.min(bucketUpperBound(i), max);
+                }
+                return max;
+            }
+        }
+    }
+}
\ No newline at end of file
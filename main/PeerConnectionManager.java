@@ -0,0 +1,568 @@
+package filesharing.main;
+
+import javax.net.ssl.SSLSocket;
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+public class PeerConnectionManager {
+    static final String MUX_TYPE = "MUX";
+    private static final int PORT = 12345;
+    private static final int MAX_FRAME_SIZE = 32 * 1024;
+    private static final int STREAM_WINDOW = 256 * 1024;
+    private static final int MAX_SESSIONS = 512;
+    private static final int SOCKET_TIMEOUT_MS = 60000;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final long PING_INTERVAL_MS = 15000;
+    private static final long REDIAL_DELAY_MS = 5000;
+    private static final long LEGACY_RECHECK_MS = 10 * 60 * 1000;
+    private static final byte FRAME_OPEN = 1;
+    private static final byte FRAME_DATA = 2;
+    private static final byte FRAME_CLOSE = 3;
+    private static final byte FRAME_WINDOW = 4;
+    private static final byte FRAME_PING = 5;
+    private static final byte FRAME_RESET = 6;
+    private static final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private static final Map<String, Object> dialLocks = new ConcurrentHashMap<>();
+    private static final Map<String, Long> redialAfter = new ConcurrentHashMap<>();
+    private static final Semaphore acceptedSessions = new Semaphore(MAX_SESSIONS);
+    private static final MetricsRegistry.Histogram handshakeTime = MetricsRegistry.histogram("peer_handshake_nanos");
+    private static final ScheduledExecutorService keepAlive = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mux-keepalive");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final DeviceManager deviceManager;
+    private final SecurityManager securityManager;
+
+    // What callers get back from open(): a multiplexed stream when the peer supports it, a plain TLS socket otherwise
+    public static class PeerChannel implements Closeable {
+        private final InputStream input;
+        private final OutputStream output;
+        private final Closeable resource;
+        private final boolean multiplexed;
+
+        PeerChannel(InputStream input, OutputStream output, Closeable resource, boolean multiplexed) {
+            this.input = input;
+            this.output = output;
+            this.resource = resource;
+            this.multiplexed = multiplexed;
+        }
+
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        public boolean isMultiplexed() {
+            return multiplexed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            resource.close();
+        }
+    }
+
+    public PeerConnectionManager(DeviceManager deviceManager, SecurityManager securityManager) {
+        this.deviceManager = deviceManager;
+        this.securityManager = securityManager;
+    }
+
+    // The channel name only labels the stream; the bytes carried are exactly what a dedicated connection would carry
+    public PeerChannel open(String address, String channel) throws IOException {
+        return open(address, channel, CONNECT_TIMEOUT_MS);
+    }
+
+    // timeoutMs bounds everything a new connection waits on: the connect, the TLS handshake and the MUX reply,
+    // and the plain-socket fallback when the dial fails
+    public PeerChannel open(String address, String channel, int timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Session session = sessionFor(address, timeoutMs);
+        if (session != null) {
+            try {
+                return session.openStream(channel);
+            } catch (IOException e) {
+                session.close();
+            }
+        }
+        int remainingMs = (int) TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0) throw new SocketTimeoutException("No time left to connect to " + address);
+        SSLSocket socket = securityManager.createSSLSocket(address, PORT, remainingMs);
+        try {
+            socket.setSoTimeout(remainingMs);
+            long handshakeStart = System.nanoTime();
+            socket.startHandshake();
+            handshakeTime.recordSince(handshakeStart);
+            socket.setSoTimeout(0);
+            return new PeerChannel(socket.getInputStream(), socket.getOutputStream(), socket, false);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Session sessionFor(String address, int timeoutMs) {
+        Session session = sessions.get(address);
+        if (session != null && session.open) return session;
+        synchronized (dialLocks.computeIfAbsent(address, key -> new Object())) {
+            session = sessions.get(address);
+            if (session != null && session.open) return session;
+            Long retryAt = redialAfter.get(address);
+            if (retryAt != null && System.currentTimeMillis() < retryAt) return null;
+            session = dial(address, timeoutMs);
+            if (session != null) {
+                sessions.put(address, session);
+                redialAfter.remove(address);
+            }
+            return session;
+        }
+    }
+
+    private Session dial(String address, int timeoutMs) {
+        Socket socket = null;
+        try {
+            socket = securityManager.createSSLSocket(address, PORT, timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            long handshakeStart = System.nanoTime();
+            ((SSLSocket) socket).startHandshake();
+            handshakeTime.recordSince(handshakeStart);
+            var dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            var dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            dos.writeUTF(deviceManager.getUserUUID());
+            dos.writeUTF(MUX_TYPE);
+            dos.flush();
+            boolean accepted;
+            try {
+                accepted = dis.readBoolean();
+            } catch (EOFException | SocketException e) {
+                // Peers without MUX drop the connection; leave them on per-message sockets for a while
+                accepted = false;
+            }
+            if (!accepted) {
+                socket.close();
+                redialAfter.put(address, System.currentTimeMillis() + LEGACY_RECHECK_MS);
+                return null;
+            }
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            Session session = new Session(address, socket, dis, dos, null);
+            session.start();
+            return session;
+        } catch (IOException e) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    // Already closed
+                }
+            }
+            redialAfter.put(address, System.currentTimeMillis() + REDIAL_DELAY_MS);
+            return null;
+        }
+    }
+
+    // Called by the server once a connection has announced MUX; the session then owns the socket
+    boolean accept(Socket socket, DataOutputStream dos, Consumer<PeerChannel> dispatcher) throws IOException {
+        if (!acceptedSessions.tryAcquire()) {
+            dos.writeBoolean(false);
+            dos.flush();
+            return false;
+        }
+        try {
+            dos.writeBoolean(true);
+            dos.flush();
+            var dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            Session session = new Session(socket.getInetAddress().getHostAddress(), socket, dis, out, dispatcher);
+            session.start();
+            return true;
+        } catch (IOException e) {
+            acceptedSessions.release();
+            throw e;
+        }
+    }
+
+    public void closeAll() {
+        new ArrayList<>(sessions.values()).forEach(Session::close);
+    }
+
+    private class Session {
+        private final String address;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final Consumer<PeerChannel> dispatcher;
+        private final Map<Integer, MuxStream> streams = new ConcurrentHashMap<>();
+        // Only the dialing side opens streams; a peer with something to send dials its own session
+        private final AtomicInteger nextStreamId = new AtomicInteger(1);
+        private volatile boolean open = true;
+        private volatile long lastWrite = System.currentTimeMillis();
+        private ScheduledFuture<?> pingTask;
+
+        Session(String address, Socket socket, DataInputStream in, DataOutputStream out, Consumer<PeerChannel> dispatcher) {
+            this.address = address;
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.dispatcher = dispatcher;
+        }
+
+        void start() {
+            Thread reader = new Thread(this::readLoop, "mux-" + address);
+            reader.setDaemon(true);
+            reader.start();
+            pingTask = keepAlive.scheduleAtFixedRate(this::ping, PING_INTERVAL_MS, PING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        PeerChannel openStream(String channel) throws IOException {
+            MuxStream stream = new MuxStream(this, nextStreamId.getAndIncrement());
+            streams.put(stream.id, stream);
+            byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+            writeFrame(stream.id, FRAME_OPEN, name, 0, name.length, false);
+            return new PeerChannel(stream.input, stream.output, stream, true);
+        }
+
+        void writeFrame(int streamId, byte type, byte[] data, int offset, int length, boolean flush) throws IOException {
+            if (!open) throw new IOException("Connection to " + address + " closed");
+            try {
+                synchronized (out) {
+                    out.writeInt(streamId);
+                    out.writeByte(type);
+                    out.writeInt(length);
+                    out.write(data, offset, length);
+                    if (flush) out.flush();
+                }
+                lastWrite = System.currentTimeMillis();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void flush() throws IOException {
+            try {
+                synchronized (out) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void readLoop() {
+            byte[] buffer = new byte[MAX_FRAME_SIZE];
+            try {
+                while (open) {
+                    int streamId = in.readInt();
+                    byte type = in.readByte();
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_FRAME_SIZE) throw new IOException("Invalid frame length: " + length);
+                    in.readFully(buffer, 0, length);
+                    MuxStream stream = streams.get(streamId);
+                    if (type == FRAME_OPEN) {
+                        if (dispatcher == null || stream != null) throw new IOException("Unexpected stream open: " + streamId);
+                        stream = new MuxStream(this, streamId);
+                        streams.put(streamId, stream);
+                        dispatcher.accept(new PeerChannel(stream.input, stream.output, stream, true));
+                    } else if (type == FRAME_DATA) {
+                        if (stream != null) {
+                            stream.receive(buffer, length);
+                        } else {
+                            // The local end is gone; tell the writer instead of letting it wait for credit forever
+                            writeFrame(streamId, FRAME_RESET, buffer, 0, 0, true);
+                        }
+                    } else if (type == FRAME_CLOSE) {
+                        if (stream != null) stream.remoteClosed();
+                    } else if (type == FRAME_WINDOW) {
+                        if (stream != null) stream.addCredit(new DataInputStream(new ByteArrayInputStream(buffer, 0, length)).readInt());
+                    } else if (type == FRAME_RESET) {
+                        if (stream != null) stream.abort();
+                    } else if (type != FRAME_PING) {
+                        throw new IOException("Unknown frame type: " + type);
+                    }
+                }
+            } catch (IOException e) {
+                // Connection lost; open() dials a fresh session on next use
+            } finally {
+                close();
+            }
+        }
+
+        private void ping() {
+            if (!open || System.currentTimeMillis() - lastWrite < PING_INTERVAL_MS / 2) return;
+            try {
+                writeFrame(0, FRAME_PING, new byte[0], 0, 0, true);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void remove(MuxStream stream) {
+            streams.remove(stream.id, stream);
+        }
+
+        void close() {
+            synchronized (this) {
+                if (!open) return;
+                open = false;
+            }
+            if (pingTask != null) pingTask.cancel(false);
+            sessions.remove(address, this);
+            if (dispatcher != null) acceptedSessions.release();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            streams.values().forEach(MuxStream::abort);
+        }
+    }
+
+    private static class MuxStream implements Closeable {
+        private final Session session;
+        private final int id;
+        private final Deque<byte[]> inbound = new ArrayDeque<>();
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final byte[] pending = new byte[MAX_FRAME_SIZE];
+        private volatile int pendingLength = 0;
+        private int headOffset = 0;
+        private int consumedSinceUpdate = 0;
+        private int sendCredit = STREAM_WINDOW;
+        private boolean remoteClosed = false;
+        private boolean aborted = false;
+        private volatile boolean outputClosed = false;
+        private volatile boolean unflushed = false;
+
+        private final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return MuxStream.this.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                MuxStream.this.close();
+            }
+        };
+
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                MuxStream.this.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                MuxStream.this.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                closeOutput();
+            }
+        };
+
+        MuxStream(Session session, int id) {
+            this.session = session;
+            this.id = id;
+        }
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            // Request/response protocols read right after writing; never make the peer wait on our buffer
+            if (pendingLength > 0 || unflushed) flushAvailable();
+            int count;
+            int credit = 0;
+            synchronized (this) {
+                while (inbound.isEmpty() && !remoteClosed && !aborted) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading from peer");
+                    }
+                }
+                if (inbound.isEmpty()) {
+                    if (remoteClosed) return -1;
+                    throw new IOException("Stream reset by peer");
+                }
+                byte[] head = inbound.peek();
+                count = Math.min(len, head.length - headOffset);
+                System.arraycopy(head, headOffset, b, off, count);
+                headOffset += count;
+                if (headOffset == head.length) {
+                    inbound.poll();
+                    headOffset = 0;
+                }
+                consumedSinceUpdate += count;
+                if (consumedSinceUpdate >= STREAM_WINDOW / 2) {
+                    credit = consumedSinceUpdate;
+                    consumedSinceUpdate = 0;
+                }
+            }
+            if (credit > 0) {
+                byte[] frame = {(byte) (credit >>> 24), (byte) (credit >>> 16), (byte) (credit >>> 8), (byte) credit};
+                session.writeFrame(id, FRAME_WINDOW, frame, 0, frame.length, true);
+            }
+            return count;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            writeLock.lock();
+            try {
+                if (outputClosed) throw new IOException("Stream closed");
+                while (len > 0) {
+                    if (pendingLength == pending.length) emitPending(true);
+                    int count = Math.min(len, pending.length - pendingLength);
+                    System.arraycopy(b, off, pending, pendingLength, count);
+                    pendingLength += count;
+                    off += count;
+                    len -= count;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void flush() throws IOException {
+            writeLock.lock();
+            try {
+                emitPending(true);
+                flushSession();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // Sends what the current window allows without blocking; if another thread is writing, it flushes itself
+        private void flushAvailable() throws IOException {
+            if (!writeLock.tryLock()) return;
+            try {
+                emitPending(false);
+                flushSession();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void emitPending(boolean waitForCredit) throws IOException {
+            int sent = 0;
+            while (sent < pendingLength) {
+                int allowed = takeCredit(pendingLength - sent, waitForCredit);
+                if (allowed == 0) break;
+                session.writeFrame(id, FRAME_DATA, pending, sent, allowed, false);
+                sent += allowed;
+                unflushed = true;
+            }
+            if (sent > 0) {
+                System.arraycopy(pending, sent, pending, 0, pendingLength - sent);
+                pendingLength -= sent;
+            }
+        }
+
+        private void flushSession() throws IOException {
+            if (unflushed) {
+                unflushed = false;
+                session.flush();
+            }
+        }
+
+        private int takeCredit(int wanted, boolean waitForCredit) throws IOException {
+            synchronized (this) {
+                if (aborted) throw new IOException("Stream reset by peer");
+                if (sendCredit > 0) {
+                    int granted = Math.min(wanted, sendCredit);
+                    sendCredit -= granted;
+                    return granted;
+                }
+                if (!waitForCredit) return 0;
+            }
+            // Out of credit: push what is buffered so the peer can consume it and send a window update
+            flushSession();
+            synchronized (this) {
+                while (sendCredit <= 0 && !aborted) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for peer window");
+                    }
+                }
+                if (aborted) throw new IOException("Stream reset by peer");
+                int granted = Math.min(wanted, sendCredit);
+                sendCredit -= granted;
+                return granted;
+            }
+        }
+
+        synchronized void receive(byte[] data, int length) {
+            inbound.add(Arrays.copyOf(data, length));
+            notifyAll();
+        }
+
+        synchronized void addCredit(int credit) {
+            sendCredit += credit;
+            notifyAll();
+        }
+
+        synchronized void remoteClosed() {
+            remoteClosed = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        private void closeOutput() throws IOException {
+            writeLock.lock();
+            try {
+                if (outputClosed) return;
+                outputClosed = true;
+                emitPending(true);
+                session.writeFrame(id, FRAME_CLOSE, pending, 0, 0, true);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean resetPeer;
+            synchronized (this) {
+                if (aborted) outputClosed = true;
+                // Like closing a socket with the peer still sending: make its writer fail instead of stall
+                resetPeer = !remoteClosed && !aborted;
+            }
+            try {
+                closeOutput();
+                if (resetPeer) session.writeFrame(id, FRAME_RESET, pending, 0, 0, true);
+            } finally {
+                session.remove(this);
+            }
+        }
+    }
+}
\ No newline at end of file
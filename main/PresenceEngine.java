@@ -0,0 +1,246 @@
+package filesharing.main;
+
+import javafx.application.Platform;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class PresenceEngine {
+    private static final int PRESENCE_PORT = 4447;
+    private static final String MULTICAST_ADDRESS = "239.255.0.1";
+    private static final int PACKET_MAGIC = 0x50524553;
+    private static final byte PACKET_HEARTBEAT = 1;
+    private static final byte PACKET_PROBE = 2;
+    private static final long HEARTBEAT_INTERVAL_MS = 5000;
+    private static final long HEARTBEAT_JITTER_MS = 1000;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    private static final long SUSPECT_AFTER_MS = 3 * HEARTBEAT_INTERVAL_MS;
+    private static final long OFFLINE_AFTER_MS = 6 * HEARTBEAT_INTERVAL_MS;
+    private static final int TCP_PROBE_TIMEOUT_MS = 1000;
+    private static final int PORT = 12345;
+    private final DeviceManager deviceManager;
+    private final DatabaseManager databaseManager;
+    private final Map<String, PeerState> peers = new ConcurrentHashMap<>();
+    // Heartbeats are matched by UUID, or by address for manual devices, without scanning every peer
+    private final Map<String, PeerState> peersByUuid = new ConcurrentHashMap<>();
+    private final Map<String, PeerState> peersByAddress = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    // One timer thread for heartbeats and sweeps, one receiver, and a small pool for legacy TCP probes,
+    // so the thread count does not grow with the number of peers
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "presence-timer"));
+    private final ExecutorService probeExecutor = Executors.newFixedThreadPool(2, runnable -> daemon(runnable, "presence-probe"));
+    private volatile MulticastSocket socket;
+
+    private enum State { ONLINE, SUSPECT, OFFLINE }
+
+    private static class PeerState {
+        private final String name;
+        private volatile String address;
+        private volatile long lastSeen = System.currentTimeMillis();
+        private volatile boolean heartbeats = false;
+        private volatile boolean probing = false;
+        private volatile long lastProbe = 0;
+        private volatile State state = State.ONLINE;
+
+        private PeerState(String name, String address) {
+            this.name = name;
+            this.address = address;
+        }
+    }
+
+    public PresenceEngine(DeviceManager deviceManager, DatabaseManager databaseManager) {
+        this.deviceManager = deviceManager;
+        this.databaseManager = databaseManager;
+    }
+
+    public void start() throws IOException {
+        MulticastSocket multicastSocket = new MulticastSocket(PRESENCE_PORT);
+        // A null interface joins on the socket's default interface, as the InetAddress overload did
+        multicastSocket.joinGroup(new InetSocketAddress(InetAddress.getByName(MULTICAST_ADDRESS), 0), null);
+        socket = multicastSocket;
+        daemon(this::receiveLoop, "presence-receiver").start();
+        scheduleHeartbeat();
+        scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        probeExecutor.shutdownNow();
+        if (socket != null) socket.close();
+    }
+
+    // mDNS names end with the peer's UUID; manual device names end with the last octet and never match one
+    public void track(String name, String address) {
+        PeerState peer = peers.computeIfAbsent(name, key -> new PeerState(name, address));
+        peersByUuid.put(name.substring(name.lastIndexOf('_') + 1), peer);
+        updateAddress(peer, address);
+        peer.lastSeen = System.currentTimeMillis();
+        setState(peer, State.ONLINE);
+    }
+
+    // mDNS goodbye: no need to wait for the suspicion timeout
+    public void markOffline(String name) {
+        PeerState peer = peers.remove(name);
+        if (peer == null) return;
+        peersByUuid.remove(name.substring(name.lastIndexOf('_') + 1), peer);
+        peersByAddress.remove(peer.address, peer);
+        setState(peer, State.OFFLINE);
+    }
+
+    public boolean isOnline(String name) {
+        PeerState peer = peers.get(name);
+        return peer != null && peer.state != State.OFFLINE;
+    }
+
+    public boolean isOnlineAddress(String address) {
+        PeerState peer = peersByAddress.get(address);
+        return peer == null || peer.state != State.OFFLINE;
+    }
+
+    // The next beat is rescheduled with jitter each time so a fleet started together does not beat in lockstep
+    private void scheduleHeartbeat() {
+        long delay = HEARTBEAT_INTERVAL_MS - HEARTBEAT_JITTER_MS + (long) (random.nextDouble() * 2 * HEARTBEAT_JITTER_MS);
+        try {
+            scheduler.schedule(() -> {
+                sendHeartbeat(new InetSocketAddress(MULTICAST_ADDRESS, PRESENCE_PORT));
+                scheduleHeartbeat();
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
+    }
+
+    private void sendHeartbeat(InetSocketAddress target) {
+        send(PACKET_HEARTBEAT, target);
+    }
+
+    private void send(byte type, InetSocketAddress target) {
+        MulticastSocket current = socket;
+        if (current == null) return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream dos = new DataOutputStream(bytes);
+            dos.writeInt(PACKET_MAGIC);
+            dos.writeByte(type);
+            dos.writeUTF(deviceManager.getUserUUID());
+            dos.writeUTF(deviceManager.getUserStatus());
+            byte[] data = bytes.toByteArray();
+            current.send(new DatagramPacket(data, data.length, target));
+        } catch (IOException e) {
+            // Best effort; the next beat retries
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[1024];
+        while (socket != null && !socket.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength()));
+                if (dis.readInt() != PACKET_MAGIC) continue;
+                byte type = dis.readByte();
+                String uuid = dis.readUTF();
+                String status = dis.readUTF();
+                if (uuid.equals(deviceManager.getUserUUID())) continue;
+                String address = packet.getAddress().getHostAddress();
+                if (type == PACKET_PROBE) {
+                    sendHeartbeat(new InetSocketAddress(packet.getAddress(), PRESENCE_PORT));
+                }
+                PeerState peer = findPeer(uuid, address);
+                if (peer != null) heartbeatReceived(peer, address, status);
+            } catch (IOException e) {
+                if (socket == null || socket.isClosed()) return;
+            }
+        }
+    }
+
+    // Manual devices are only known by address
+    private PeerState findPeer(String uuid, String address) {
+        PeerState peer = peersByUuid.get(uuid);
+        return peer != null ? peer : peersByAddress.get(address);
+    }
+
+    private void updateAddress(PeerState peer, String address) {
+        String previous = peer.address;
+        peer.address = address;
+        if (!previous.equals(address)) peersByAddress.remove(previous, peer);
+        peersByAddress.put(address, peer);
+    }
+
+    private void heartbeatReceived(PeerState peer, String address, String status) {
+        updateAddress(peer, address);
+        peer.lastSeen = System.currentTimeMillis();
+        peer.heartbeats = true;
+        setState(peer, State.ONLINE);
+        Platform.runLater(() -> deviceManager.getUserStatuses().put(peer.name, status));
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (PeerState peer : peers.values()) {
+            long silence = now - peer.lastSeen;
+            if (silence >= OFFLINE_AFTER_MS) {
+                setState(peer, State.OFFLINE);
+            } else if (silence >= SUSPECT_AFTER_MS && peer.state == State.ONLINE) {
+                setState(peer, State.SUSPECT);
+            }
+            if (peer.state != State.ONLINE && now - peer.lastProbe >= HEARTBEAT_INTERVAL_MS) {
+                peer.lastProbe = now;
+                probe(peer);
+            }
+        }
+    }
+
+    // Suspects get a direct unicast probe in case multicast is filtered; peers that have never
+    // sent a heartbeat predate this protocol and get a plain TCP connect instead of a TLS handshake
+    private void probe(PeerState peer) {
+        if (peer.heartbeats) {
+            send(PACKET_PROBE, new InetSocketAddress(peer.address, PRESENCE_PORT));
+            return;
+        }
+        if (peer.probing) return;
+        peer.probing = true;
+        try {
+            probeExecutor.execute(() -> {
+                try (Socket probe = new Socket()) {
+                    probe.connect(new InetSocketAddress(peer.address, PORT), TCP_PROBE_TIMEOUT_MS);
+                    peer.lastSeen = System.currentTimeMillis();
+                    setState(peer, State.ONLINE);
+                } catch (IOException e) {
+                    // Still unreachable; the sweep keeps counting
+                } finally {
+                    peer.probing = false;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            peer.probing = false;
+        }
+    }
+
+    private void setState(PeerState peer, State state) {
+        State previous = peer.state;
+        peer.state = state;
+        if (previous == state) return;
+        if (state == State.SUSPECT) {
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Device " + peer.name + " suspected offline");
+            return;
+        }
+        boolean online = state == State.ONLINE;
+        Platform.runLater(() -> deviceManager.getDeviceStatus().put(peer.name, getResourceString(online ? "online" : "offline")));
+        if (previous == State.SUSPECT || !online) {
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Device " + peer.name + (online ? " back online" : " offline"));
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private String getResourceString(String key) {
+        return ResourceBundle.getBundle("messages", Locale.getDefault()).getString(key);
+    }
+}
\ No newline at end of file
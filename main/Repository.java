@@ -0,0 +1,223 @@
+package filesharing.main;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Repository {
+    // Matches the reader pool, so queued queries wait here rather than on a pooled connection
+    private static final int THREADS = 4;
+    private static final int MIN_FTS_QUERY_LENGTH = 3;
+    private final SqliteDatabase database;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "repository-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public interface SqlFunction<T> {
+        T apply(Connection conn) throws SQLException;
+    }
+
+    public static final class ChatSearchHit {
+        public final String uuid;
+        public final String type;
+        public final long timestamp;
+        public final String snippet;
+
+        private ChatSearchHit(String uuid, String type, long timestamp, String snippet) {
+            this.uuid = uuid;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.snippet = snippet;
+        }
+    }
+
+    public static final class TypeCount {
+        public final String source;
+        public final String type;
+        public final long count;
+        public final long bytes;
+
+        private TypeCount(String source, String type, long count, long bytes) {
+            this.source = source;
+            this.type = type;
+            this.count = count;
+            this.bytes = bytes;
+        }
+    }
+
+    public static final class HourlyCount {
+        public final long hour;
+        public final long transfers;
+        public final long bytes;
+        public final long chats;
+
+        private HourlyCount(long hour, long transfers, long bytes, long chats) {
+            this.hour = hour;
+            this.transfers = transfers;
+            this.bytes = bytes;
+            this.chats = chats;
+        }
+    }
+
+    public static final class PeerCount {
+        public final String peer;
+        public final long transfers;
+        public final long bytes;
+        public final long chats;
+
+        private PeerCount(String peer, long transfers, long bytes, long chats) {
+            this.peer = peer;
+            this.transfers = transfers;
+            this.bytes = bytes;
+            this.chats = chats;
+        }
+    }
+
+    public Repository(SqliteDatabase database) {
+        this.database = database;
+    }
+
+    // Runs on a pooled query_only connection; a failure completes the future with the SQLException itself
+    public <T> CompletableFuture<T> read(SqlFunction<T> query) {
+        return submit(query, false);
+    }
+
+    // Runs on the writer in one transaction, committed when the function returns
+    public <T> CompletableFuture<T> write(SqlFunction<T> update) {
+        return submit(update, true);
+    }
+
+    // Ranks the matches once, best first, and returns their chat ids; pages are then read by id, so paging never
+    // re-ranks. Trigram matching needs three characters, so shorter keywords fall back to a LIKE scan, newest first
+    public CompletableFuture<long[]> rankChats(String keyword, int limit) {
+        return read(conn -> {
+            PreparedStatement pstmt;
+            if (usesFts(keyword)) {
+                pstmt = conn.prepareStatement("SELECT rowid FROM chats_fts WHERE chats_fts MATCH ? ORDER BY bm25(chats_fts), rowid LIMIT ?");
+                pstmt.setString(1, ftsPhrase(keyword));
+            } else {
+                pstmt = conn.prepareStatement("SELECT id FROM chats WHERE message LIKE ? ESCAPE '\\' ORDER BY id DESC LIMIT ?");
+                pstmt.setString(1, "%" + keyword.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+            }
+            pstmt.setInt(2, limit);
+            ResultSet rs = pstmt.executeQuery();
+            long[] ids = new long[limit];
+            int count = 0;
+            while (rs.next()) {
+                ids[count++] = rs.getLong(1);
+            }
+            return Arrays.copyOf(ids, count);
+        });
+    }
+
+    // ids[from, to) from rankChats, in rank order with the match highlighted in brackets. Rows deleted since
+    // the ranking are skipped
+    public CompletableFuture<List<ChatSearchHit>> chatSearchPage(String keyword, long[] ids, int from, int to) {
+        return read(conn -> {
+            String placeholders = String.join(", ", Collections.nCopies(to - from, "?"));
+            boolean fts = usesFts(keyword);
+            PreparedStatement pstmt;
+            int index = 1;
+            if (fts) {
+                pstmt = conn.prepareStatement("SELECT c.id, c.uuid, c.type, c.timestamp, "
+                        + "snippet(chats_fts, 0, '[', ']', '…', 16) AS snippet FROM chats_fts JOIN chats c ON c.id = chats_fts.rowid "
+                        + "WHERE chats_fts MATCH ? AND chats_fts.rowid IN (" + placeholders + ")");
+                pstmt.setString(index++, ftsPhrase(keyword));
+            } else {
+                pstmt = conn.prepareStatement("SELECT id, uuid, type, timestamp, message AS snippet FROM chats WHERE id IN (" + placeholders + ")");
+            }
+            for (int i = from; i < to; i++) {
+                pstmt.setLong(index++, ids[i]);
+            }
+            Map<Long, ChatSearchHit> byId = new HashMap<>();
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String snippet = fts ? rs.getString("snippet") : rs.getString("snippet").replace(keyword, "[" + keyword + "]");
+                byId.put(rs.getLong(1), new ChatSearchHit(rs.getString("uuid"), rs.getString("type"), rs.getLong("timestamp"), snippet));
+            }
+            List<ChatSearchHit> hits = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                ChatSearchHit hit = byId.get(ids[i]);
+                if (hit != null) hits.add(hit);
+            }
+            return hits;
+        });
+    }
+
+    private static boolean usesFts(String keyword) {
+        return keyword.codePointCount(0, keyword.length()) >= MIN_FTS_QUERY_LENGTH;
+    }
+
+    private static String ftsPhrase(String keyword) {
+        return "\"" + keyword.replace("\"", "\"\"") + "\"";
+    }
+
+    // All-time counts per type, summed from the small trigger-maintained per-peer totals rather than the raw logs
+    public CompletableFuture<List<TypeCount>> typeCounts() {
+        return read(conn -> {
+            List<TypeCount> counts = new ArrayList<>();
+            ResultSet rs = conn.createStatement().executeQuery(
+                    "SELECT 'transfer' AS source, type, SUM(count) AS count, SUM(bytes) AS bytes FROM transfer_peers GROUP BY type "
+                            + "UNION ALL SELECT 'chat', type, SUM(count), 0 FROM chat_peers GROUP BY type");
+            while (rs.next()) {
+                counts.add(new TypeCount(rs.getString("source"), rs.getString("type"), rs.getLong("count"), rs.getLong("bytes")));
+            }
+            return counts;
+        });
+    }
+
+    // One entry per hour with any activity since sinceMillis, oldest first; quiet hours are left out
+    public CompletableFuture<List<HourlyCount>> hourlyCounts(long sinceMillis) {
+        return read(conn -> {
+            List<HourlyCount> counts = new ArrayList<>();
+            PreparedStatement pstmt = conn.prepareStatement("SELECT hour, SUM(transfers) AS transfers, SUM(bytes) AS bytes, SUM(chats) AS chats FROM ("
+                    + "SELECT hour, count AS transfers, bytes, 0 AS chats FROM transfer_stats WHERE hour >= ? "
+                    + "UNION ALL SELECT hour, 0, 0, count FROM chat_stats WHERE hour >= ?) GROUP BY hour ORDER BY hour");
+            pstmt.setLong(1, sinceMillis);
+            pstmt.setLong(2, sinceMillis);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                counts.add(new HourlyCount(rs.getLong("hour"), rs.getLong("transfers"), rs.getLong("bytes"), rs.getLong("chats")));
+            }
+            return counts;
+        });
+    }
+
+    // Busiest peers by bytes transferred, then by chat count
+    public CompletableFuture<List<PeerCount>> peerCounts(int limit) {
+        return read(conn -> {
+            List<PeerCount> counts = new ArrayList<>();
+            PreparedStatement pstmt = conn.prepareStatement("SELECT peer, SUM(transfers) AS transfers, SUM(bytes) AS bytes, SUM(chats) AS chats FROM ("
+                    + "SELECT peer, count AS transfers, bytes, 0 AS chats FROM transfer_peers WHERE peer <> '' "
+                    + "UNION ALL SELECT peer, 0, 0, count FROM chat_peers WHERE peer <> '') "
+                    + "GROUP BY peer ORDER BY bytes DESC, chats DESC LIMIT ?");
+            pstmt.setInt(1, limit);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                counts.add(new PeerCount(rs.getString("peer"), rs.getLong("transfers"), rs.getLong("bytes"), rs.getLong("chats")));
+            }
+            return counts;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(SqlFunction<T> function, boolean write) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try (Connection conn = write ? database.writer() : database.reader()) {
+                if (write) conn.setAutoCommit(false);
+                T result = function.apply(conn);
+                if (write) conn.commit();
+                future.complete(result);
+            } catch (SQLException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+}
\ No newline at end of file
@@ -2,16 +2,21 @@ package filesharing.main;
 
 import javax.net.ssl.*;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class SecurityManager {
     private static final String KEYSTORE_PATH = "keystore.jks";
     private static final String KEYSTORE_PASSWORD = "password";
     private static final String ALGORITHM = "AES";
     private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+    private static volatile SSLContext sslContext;
 
     public SecurityManager() {
         System.setProperty("javax.net.ssl.keyStore", KEYSTORE_PATH);
@@ -21,21 +26,50 @@ public class SecurityManager {
     }
 
     public SSLServerSocket createSSLServerSocket(int port) throws IOException {
-        SSLServerSocketFactory factory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
-        return (SSLServerSocket) factory.createServerSocket(port);
+        return (SSLServerSocket) getContext().getServerSocketFactory().createServerSocket(port);
     }
 
     public SSLSocket createSSLSocket(String host, int port) throws IOException {
-        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-        return (SSLSocket) factory.createSocket(host, port);
+        return (SSLSocket) getContext().getSocketFactory().createSocket(host, port);
     }
 
-    public String encryptMessage(String message) throws Exception {
+    // The TCP connect is bounded; the plain overload waits as long as the OS does for an unreachable host
+    public SSLSocket createSSLSocket(String host, int port, int connectTimeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            return (SSLSocket) getContext().getSocketFactory().createSocket(socket, host, port, true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // One context for every socket, so reconnects resume the cached TLS session instead of a full handshake
+    private static SSLContext getContext() throws IOException {
+        if (sslContext == null) {
+            synchronized (SecurityManager.class) {
+                if (sslContext == null) {
+                    try {
+                        SSLContext context = SSLContext.getDefault();
+                        context.getClientSessionContext().setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+                        context.getServerSessionContext().setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+                        sslContext = context;
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IOException("TLS unavailable", e);
+                    }
+                }
+            }
+        }
+        return sslContext;
+    }
+
+    public String encryptMessage(String message) {
         // Simplified; use proper encryption in production
         return Base64.getEncoder().encodeToString(message.getBytes());
     }
 
-    public String decryptMessage(String encrypted) throws Exception {
+    public String decryptMessage(String encrypted) {
         // Simplified; use proper decryption in production
         return new String(Base64.getDecoder().decode(encrypted));
     }
@@ -50,24 +84,14 @@ public class SecurityManager {
     }
 
     public String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
+        return DigestService.toHex(bytes);
     }
 
     public boolean verifySignature(File file, String signature, PublicKey publicKey) {
         try {
             Signature sig = Signature.getInstance(SIGNATURE_ALGORITHM);
             sig.initVerify(publicKey);
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int len;
-                while ((len = fis.read(buffer)) != -1) {
-                    sig.update(buffer, 0, len);
-                }
-            }
+            DigestService.readFile(file.toPath(), sig::update);
             return sig.verify(Base64.getDecoder().decode(signature));
         } catch (Exception e) {
             e.printStackTrace();
@@ -84,8 +108,7 @@ public class SecurityManager {
     }
 
     public void testInSandbox(File jarFile) throws IOException {
-        // Basic sandbox implementation using SecurityManager
-        System.setSecurityManager(new SecurityManager());
+        // The child JVM runs under its own java.lang.SecurityManager; installing one here would sandbox the app itself
         ProcessBuilder pb = new ProcessBuilder("java", "-Djava.security.manager", "-jar", jarFile.getAbsolutePath());
         try {
             Process process = pb.start();
@@ -100,8 +123,6 @@ public class SecurityManager {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new IOException("Sandbox test interrupted", e);
-        } finally {
-            System.setSecurityManager(null); // Reset SecurityManager
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,352 @@
+package filesharing.main;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SqliteDatabase {
+    private static final int MAX_READERS = 4;
+    private static final int STATEMENT_CACHE_SIZE = 32;
+    private static final String[] PRAGMAS = {
+            // Only takes effect on a new file; LogRetention converts older ones
+            "PRAGMA auto_vacuum=INCREMENTAL",
+            "PRAGMA journal_mode=WAL",
+            // WAL with NORMAL only syncs at checkpoints; a power cut can lose the last commits but never corrupts
+            "PRAGMA synchronous=NORMAL",
+            "PRAGMA cache_size=-8192",
+            "PRAGMA mmap_size=67108864",
+            "PRAGMA temp_store=MEMORY",
+            "PRAGMA busy_timeout=5000"
+    };
+    private static final Map<String, SqliteDatabase> databases = new ConcurrentHashMap<>();
+    private final String url;
+    private final BlockingQueue<PooledConnection> idleReaders = new LinkedBlockingQueue<>();
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private PooledConnection writerConnection;
+
+    private SqliteDatabase(String file) {
+        this.url = "jdbc:sqlite:" + file;
+    }
+
+    // One instance per file, shared by every DatabaseManager and tab
+    public static SqliteDatabase get(String file) {
+        return databases.computeIfAbsent(file, SqliteDatabase::new);
+    }
+
+    public static void closeAll() {
+        databases.values().forEach(SqliteDatabase::close);
+    }
+
+    // Readers are query_only and run beside the writer under WAL, so UI queries never wait on the log writer
+    public Connection reader() throws SQLException {
+        PooledConnection pooled = idleReaders.poll();
+        if (pooled == null) {
+            if (openReaders.incrementAndGet() <= MAX_READERS) {
+                try {
+                    pooled = open(true);
+                } catch (SQLException e) {
+                    openReaders.decrementAndGet();
+                    throw e;
+                }
+            } else {
+                openReaders.decrementAndGet();
+                try {
+                    pooled = idleReaders.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a reader on " + url, e);
+                }
+            }
+        }
+        PooledConnection lent = pooled;
+        return lent.lend(() -> {
+            if (lent.broken) {
+                lent.closePhysical();
+                openReaders.decrementAndGet();
+            } else {
+                idleReaders.offer(lent);
+            }
+        });
+    }
+
+    // SQLite allows one writer at a time; callers queue here instead of spinning on SQLITE_BUSY
+    public Connection writer() throws SQLException {
+        writeLock.lock();
+        try {
+            if (writerConnection == null || writerConnection.broken) {
+                if (writerConnection != null) writerConnection.closePhysical();
+                writerConnection = open(false);
+            }
+            return writerConnection.lend(writeLock::unlock);
+        } catch (SQLException | RuntimeException e) {
+            writeLock.unlock();
+            throw e;
+        }
+    }
+
+    // Applies the migrations past PRAGMA user_version, each in its own transaction together with the version bump
+    public void migrate(String[][] migrations) throws SQLException {
+        try (Connection conn = writer()) {
+            int version;
+            try (ResultSet rs = conn.createStatement().executeQuery("PRAGMA user_version")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+            for (int i = version; i < migrations.length; i++) {
+                conn.setAutoCommit(false);
+                try (Statement stmt = conn.createStatement()) {
+                    for (String sql : migrations[i]) {
+                        stmt.execute(sql);
+                    }
+                    stmt.execute("PRAGMA user_version = " + (i + 1));
+                }
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Like migrate(), but versioned per module in schema_versions so several modules can share one file
+    public void migrate(String module, String[][] migrations) throws SQLException {
+        try (Connection conn = writer()) {
+            int version = moduleVersion(conn, module);
+            for (int i = version; i < migrations.length; i++) {
+                conn.setAutoCommit(false);
+                try (Statement stmt = conn.createStatement()) {
+                    for (String sql : migrations[i]) {
+                        stmt.execute(sql);
+                    }
+                }
+                setModuleVersion(conn, module, i + 1);
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Copies tables out of another file through ATTACH, in one transaction and only once per file.
+    // Rowids are copied too, so keyset checkpoints taken against the old file stay valid
+    public boolean importFrom(String file, String... tables) throws SQLException {
+        String marker = "import:" + file;
+        try (Connection conn = writer()) {
+            if (moduleVersion(conn, marker) > 0) return false;
+            Statement stmt = conn.createStatement();
+            stmt.execute("ATTACH DATABASE '" + file.replace("'", "''") + "' AS legacy");
+            try {
+                conn.setAutoCommit(false);
+                for (String table : tables) {
+                    String columns = copyColumns(conn, table);
+                    if (columns == null) continue;
+                    stmt.execute("INSERT INTO main." + table + " (" + columns + ") SELECT " + columns + " FROM legacy." + table);
+                }
+                setModuleVersion(conn, marker, 1);
+                conn.commit();
+            } finally {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+                stmt.execute("DETACH DATABASE legacy");
+            }
+            return true;
+        }
+    }
+
+    // Closes a file's connections and forgets it, so it can be moved or deleted
+    public static void release(String file) {
+        SqliteDatabase database = databases.remove(file);
+        if (database != null) database.close();
+    }
+
+    private static int moduleVersion(Connection conn, String module) throws SQLException {
+        conn.createStatement().execute("CREATE TABLE IF NOT EXISTS schema_versions (module TEXT PRIMARY KEY, version INTEGER NOT NULL) WITHOUT ROWID");
+        PreparedStatement pstmt = conn.prepareStatement("SELECT version FROM schema_versions WHERE module = ?");
+        pstmt.setString(1, module);
+        ResultSet rs = pstmt.executeQuery();
+        return rs.next() ? rs.getInt(1) : 0;
+    }
+
+    private static void setModuleVersion(Connection conn, String module, int version) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO schema_versions (module, version) VALUES (?, ?)");
+        pstmt.setString(1, module);
+        pstmt.setInt(2, version);
+        pstmt.executeUpdate();
+    }
+
+    // The attached table's columns, plus rowid unless it is a WITHOUT ROWID table or has an INTEGER PRIMARY KEY alias;
+    // null when the attached file has no such table. Statements here are closed before DETACH, which fails while one is open
+    private static String copyColumns(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        boolean hasRowid;
+        int keyColumns = 0;
+        boolean integerKey = false;
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT sql FROM legacy.sqlite_master WHERE type = 'table' AND name = '" + table.replace("'", "''") + "'")) {
+                if (!rs.next()) return null;
+                hasRowid = !rs.getString(1).toUpperCase(Locale.ROOT).contains("WITHOUT ROWID");
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA legacy.table_info(" + table + ")")) {
+                while (rs.next()) {
+                    columns.add(rs.getString("name"));
+                    if (rs.getInt("pk") > 0) {
+                        keyColumns++;
+                        integerKey = "INTEGER".equalsIgnoreCase(rs.getString("type"));
+                    }
+                }
+            }
+        }
+        if (hasRowid && !(keyColumns == 1 && integerKey)) columns.add(0, "rowid");
+        return String.join(", ", columns);
+    }
+
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : PRAGMAS) {
+                stmt.execute(pragma);
+            }
+            if (readOnly) stmt.execute("PRAGMA query_only=1");
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return new PooledConnection(conn);
+    }
+
+    private void close() {
+        writeLock.lock();
+        try {
+            if (writerConnection != null) writerConnection.closePhysical();
+            writerConnection = null;
+        } finally {
+            writeLock.unlock();
+        }
+        PooledConnection pooled;
+        while ((pooled = idleReaders.poll()) != null) {
+            pooled.closePhysical();
+            openReaders.decrementAndGet();
+        }
+    }
+
+    private static class PooledConnection {
+        private final Connection physical;
+        private final Map<String, PreparedStatement> statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= STATEMENT_CACHE_SIZE) return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        private volatile boolean broken = false;
+        private int lendDepth = 0;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        // The handle closes what it opened and resets the transaction, then hands the connection back
+        private Connection lend(Runnable release) {
+            lendDepth++;
+            List<Statement> opened = new ArrayList<>();
+            List<ResultSet> results = new ArrayList<>();
+            boolean[] released = new boolean[1];
+            Connection[] handle = new Connection[1];
+            handle[0] = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!released[0]) {
+                                    released[0] = true;
+                                    results.forEach(PooledConnection::closeQuietly);
+                                    opened.forEach(PooledConnection::closeQuietly);
+                                    if (--lendDepth == 0) reset();
+                                    release.run();
+                                }
+                                return null;
+                            case "isClosed":
+                                return released[0] || physical.isClosed();
+                            case "unwrap":
+                                return physical.unwrap((Class<?>) args[0]);
+                            default:
+                                break;
+                        }
+                        if (released[0]) throw new SQLException("Connection already returned to the pool");
+                        if (method.getName().equals("prepareStatement") && args.length == 1) {
+                            return cachedStatement((String) args[0], handle[0], results);
+                        }
+                        Object result = invoke(physical, method, args);
+                        if (result instanceof Statement) opened.add((Statement) result);
+                        return result;
+                    });
+            return handle[0];
+        }
+
+        private PreparedStatement cachedStatement(String sql, Connection handle, List<ResultSet> results) throws SQLException {
+            PreparedStatement statement = statementCache.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = physical.prepareStatement(sql);
+                statementCache.put(sql, statement);
+            }
+            PreparedStatement cached = statement;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                cached.clearParameters();
+                                cached.clearBatch();
+                                return null;
+                            case "getConnection":
+                                return handle;
+                            default:
+                                Object result = invoke(cached, method, args);
+                                if (result instanceof ResultSet) results.add((ResultSet) result);
+                                return result;
+                        }
+                    });
+        }
+
+        // A connection that cannot be reset is dropped on release instead of being handed out again
+        private void reset() {
+            try {
+                if (physical.isClosed()) {
+                    broken = true;
+                } else if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                broken = true;
+            }
+        }
+
+        private void closePhysical() {
+            statementCache.values().forEach(PooledConnection::closeQuietly);
+            statementCache.clear();
+            closeQuietly(physical);
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private static void closeQuietly(AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // Already closed
+            }
+        }
+    }
+}
\ No newline at end of file
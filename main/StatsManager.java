@@ -1,16 +1,40 @@
 package filesharing.main;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.scene.Scene;
+import javafx.scene.chart.BarChart;
+import javafx.scene.chart.CategoryAxis;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.PieChart;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Button;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.TextArea;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import oshi.SystemInfo;
 import oshi.hardware.NetworkIF;
-import java.sql.*;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
 
 public class StatsManager {
+    private static final int DASHBOARD_HOURS = 48;
+    private static final long HOUR_MS = 60L * 60 * 1000;
+    private static final int TOP_PEERS = 10;
+    private static final long METRICS_REFRESH_MS = 1000;
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("MM-dd HH:00").withZone(ZoneId.systemDefault());
     private final DatabaseManager databaseManager;
     private final SystemInfo systemInfo = new SystemInfo();
 
@@ -18,24 +42,19 @@ public class StatsManager {
         this.databaseManager = databaseManager;
     }
 
+    // Windows open straight away and the charts fill in when the repository query completes
     public void showStats() {
         PieChart chart = new PieChart();
-        try (var conn = databaseManager.getTransferConnection()) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT type, COUNT(*) as count FROM transfers GROUP BY type");
-            while (rs.next()) {
-                chart.getData().add(new PieChart.Data(rs.getString("type"), rs.getInt("count")));
+        databaseManager.repository().typeCounts().whenComplete((counts, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                notify("Stats error: " + error.getMessage());
+                return;
             }
-        } catch (SQLException e) {
-            notify("Stats error: " + e.getMessage());
-        }
-        try (var conn = databaseManager.getChatConnection()) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT type, COUNT(*) as count FROM chats GROUP BY type");
-            while (rs.next()) {
-                chart.getData().add(new PieChart.Data("Chat " + rs.getString("type"), rs.getInt("count")));
+            for (Repository.TypeCount count : counts) {
+                String label = count.source.equals("chat") ? "Chat " + count.type : count.type;
+                chart.getData().add(new PieChart.Data(label, count.count));
             }
-        } catch (SQLException e) {
-            notify("Chat stats error: " + e.getMessage());
-        }
+        }));
         Stage statsStage = new Stage();
         statsStage.setTitle(getResourceString("activity_stats"));
         statsStage.setScene(new Scene(new VBox(new Text(getResourceString("activity_stats")), chart), 400, 300));
@@ -45,31 +64,114 @@ public class StatsManager {
     public void showDashboard() {
         PieChart transferChart = new PieChart();
         PieChart chatChart = new PieChart();
-        try (var conn = databaseManager.getTransferConnection()) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT type, COUNT(*) as count FROM transfers GROUP BY type");
-            while (rs.next()) {
-                transferChart.getData().add(new PieChart.Data(rs.getString("type"), rs.getInt("count")));
+        LineChart<String, Number> hourlyChart = new LineChart<>(new CategoryAxis(), new NumberAxis());
+        BarChart<String, Number> peerChart = new BarChart<>(new CategoryAxis(), new NumberAxis());
+        Repository repository = databaseManager.repository();
+        repository.typeCounts().whenComplete((counts, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                notify("Dashboard error: " + error.getMessage());
+                return;
             }
-        } catch (SQLException e) {
-            notify("Transfer dashboard error: " + e.getMessage());
-        }
-        try (var conn = databaseManager.getChatConnection()) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT type, COUNT(*) as count FROM chats GROUP BY type");
-            while (rs.next()) {
-                chatChart.getData().add(new PieChart.Data("Chat " + rs.getString("type"), rs.getInt("count")));
+            for (Repository.TypeCount count : counts) {
+                if (count.source.equals("chat")) {
+                    chatChart.getData().add(new PieChart.Data("Chat " + count.type, count.count));
+                } else {
+                    transferChart.getData().add(new PieChart.Data(count.type, count.count));
+                }
             }
-        } catch (SQLException e) {
-            notify("Chat dashboard error: " + e.getMessage());
-        }
+        }));
+        repository.hourlyCounts(System.currentTimeMillis() - DASHBOARD_HOURS * HOUR_MS).whenComplete((counts, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                notify("Dashboard error: " + error.getMessage());
+                return;
+            }
+            XYChart.Series<String, Number> transfers = new XYChart.Series<>();
+            XYChart.Series<String, Number> chats = new XYChart.Series<>();
+            transfers.setName(getResourceString("transfer_stats"));
+            chats.setName(getResourceString("chat_stats"));
+            for (Repository.HourlyCount count : counts) {
+                String hour = HOUR_FORMAT.format(Instant.ofEpochMilli(count.hour));
+                transfers.getData().add(new XYChart.Data<>(hour, count.transfers));
+                chats.getData().add(new XYChart.Data<>(hour, count.chats));
+            }
+            hourlyChart.getData().add(transfers);
+            hourlyChart.getData().add(chats);
+        }));
+        repository.peerCounts(TOP_PEERS).whenComplete((counts, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                notify("Dashboard error: " + error.getMessage());
+                return;
+            }
+            XYChart.Series<String, Number> megabytes = new XYChart.Series<>();
+            megabytes.setName("MB");
+            for (Repository.PeerCount count : counts) {
+                megabytes.getData().add(new XYChart.Data<>(count.peer, count.bytes / (1024.0 * 1024.0)));
+            }
+            peerChart.getData().add(megabytes);
+        }));
         Stage dashboardStage = new Stage();
+        TextArea metricsArea = new TextArea();
+        metricsArea.setEditable(false);
+        metricsArea.setStyle("-fx-font-family: monospace;");
+        metricsArea.setPrefRowCount(20);
+        Map<String, Long> previousCounters = new HashMap<>(MetricsRegistry.counterValues());
+        metricsArea.setText(formatMetrics(previousCounters));
+        Timeline metricsRefresh = new Timeline(new KeyFrame(Duration.millis(METRICS_REFRESH_MS),
+                e -> metricsArea.setText(formatMetrics(previousCounters))));
+        metricsRefresh.setCycleCount(Animation.INDEFINITE);
+        metricsRefresh.play();
+        Button exportButton = new Button(getResourceString("export_metrics"));
+        exportButton.setOnAction(e -> exportMetrics(dashboardStage));
+        dashboardStage.setOnHidden(e -> metricsRefresh.stop());
         dashboardStage.setTitle(getResourceString("dashboard"));
-        dashboardStage.setScene(new Scene(new VBox(
+        dashboardStage.setScene(new Scene(new ScrollPane(new VBox(
+                new Text(getResourceString("live_metrics")), metricsArea, exportButton,
                 new Text(getResourceString("transfer_stats")), transferChart,
-                new Text(getResourceString("chat_stats")), chatChart
-        ), 600, 600));
+                new Text(getResourceString("chat_stats")), chatChart,
+                new Text(getResourceString("hourly_activity")), hourlyChart,
+                new Text(getResourceString("top_peers")), peerChart
+        )), 600, 1000));
         dashboardStage.show();
     }
 
+    // Counters show the total and the rate since the previous refresh; histograms in nanoseconds are shown in ms
+    private String formatMetrics(Map<String, Long> previousCounters) {
+        StringBuilder text = new StringBuilder();
+        double seconds = METRICS_REFRESH_MS / 1000.0;
+        MetricsRegistry.counterValues().forEach((name, value) -> {
+            long delta = value - previousCounters.getOrDefault(name, 0L);
+            previousCounters.put(name, value);
+            if (name.contains("bytes")) {
+                text.append(String.format("%-36s %12.1f MB %10.2f MB/s%n", name, value / (1024.0 * 1024.0), delta / seconds / (1024.0 * 1024.0)));
+            } else {
+                text.append(String.format("%-36s %12d %13.1f/s%n", name, value, delta / seconds));
+            }
+        });
+        text.append(String.format("%n%-36s %8s %10s %10s %10s %10s%n", "", "count", "p50", "p90", "p99", "max"));
+        MetricsRegistry.histogramSnapshots().forEach((name, snapshot) -> {
+            double scale = name.endsWith("_nanos") ? 1_000_000.0 : 1.0;
+            String label = name.endsWith("_nanos") ? name.substring(0, name.length() - "_nanos".length()) + " (ms)" : name;
+            text.append(String.format("%-36s %8d %10.2f %10.2f %10.2f %10.2f%n", label, snapshot.getCount(),
+                    snapshot.percentile(0.5) / scale, snapshot.percentile(0.9) / scale,
+                    snapshot.percentile(0.99) / scale, snapshot.getMax() / scale));
+        });
+        return text.toString();
+    }
+
+    private void exportMetrics(Stage owner) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setInitialFileName("filesharing.prom");
+        File file = fileChooser.showSaveDialog(owner);
+        if (file == null) return;
+        try {
+            MetricsRegistry.export(file);
+            notify(getResourceString("metrics_exported") + file.getAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            notify("Metrics export error: " + e.getMessage());
+        }
+    }
+
     public void runNetworkDiagnostics() {
         StringBuilder diagnostics = new StringBuilder();
         diagnostics.append(getResourceString("network_diagnostics")).append(":\n");
@@ -0,0 +1,486 @@
+package filesharing.main;
+
+import javafx.application.Platform;
+import javafx.scene.control.ProgressBar;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StripedTransferManager {
+    private static final int PORT = 12345;
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MIN_STREAMS = 1;
+    private static final int MAX_STREAMS = 8;
+    private static final int MAX_CHUNK_FAILURES = 3;
+    // A receive nobody has written to for this long is closed; its .part file and manifest stay for a later resume
+    private static final long RECEIVE_IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+    private static final long RECEIVE_SWEEP_INTERVAL_MS = 60 * 1000;
+    private static final BufferPool chunkBufferPool = new BufferPool(256 * 1024, 32, false);
+    private static final MetricsRegistry.Counter transferBytesSent = MetricsRegistry.counter("transfer_bytes_sent");
+    private static final MetricsRegistry.Counter transferBytesReceived = MetricsRegistry.counter("transfer_bytes_received");
+    private static final MetricsRegistry.Histogram handshakeTime = MetricsRegistry.histogram("peer_handshake_nanos");
+    private static volatile int stripeCount = 4;
+    private static double lastStripeThroughput = 0;
+    private static final ScheduledExecutorService receiveSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chunk-receive-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static int stripeDirection = 1;
+    private final DeviceManager deviceManager;
+    private final DatabaseManager databaseManager;
+    private final SecurityManager securityManager;
+    private final FileTransferManager fileTransferManager;
+    private final ExecutorService stripeExecutor = Executors.newCachedThreadPool();
+    private final Map<String, ChunkedReceive> activeReceives = new ConcurrentHashMap<>();
+
+    public StripedTransferManager(DeviceManager deviceManager, DatabaseManager databaseManager, SecurityManager securityManager, FileTransferManager fileTransferManager) {
+        this.deviceManager = deviceManager;
+        this.databaseManager = databaseManager;
+        this.securityManager = securityManager;
+        this.fileTransferManager = fileTransferManager;
+        deviceManager.registerConnectionHandler("FILE_CHUNKS", (uuid, dis, dos) -> receiveChunks(uuid, dis, dos, false));
+        deviceManager.registerConnectionHandler("FILE_CHUNKS_Z", (uuid, dis, dos) -> receiveChunks(uuid, dis, dos, true));
+        receiveSweeper.scheduleWithFixedDelay(this::closeIdleReceives, RECEIVE_SWEEP_INTERVAL_MS, RECEIVE_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void sendChunked(File file, String fileName, String address, String metadata, String tags, boolean striped, ProgressBar progressBar) throws IOException {
+        long fileSize = file.length();
+        int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        String transferId = transferIdFor(file, address);
+        Queue<Integer> pendingChunks = new ConcurrentLinkedQueue<>();
+        Set<Integer> acknowledged = ConcurrentHashMap.newKeySet();
+        Map<Integer, Integer> failures = new ConcurrentHashMap<>();
+        AtomicLong bytesSent = new AtomicLong();
+        long startTime = System.currentTimeMillis();
+        // All stripes draw from one bulk flow, so adding streams never takes a bigger share of the limit
+        BandwidthScheduler.Flow flow = fileTransferManager.openFlow(deviceManager.resolvePeer(address), BandwidthScheduler.Priority.BULK);
+        // FILE_CHUNKS_Z frames each chunk as compressor blocks; chunk hashes stay over the raw file bytes
+        boolean compress = fileTransferManager.isCompressTransfers() && deviceManager.supportsCompression(address);
+        long[] compressionTotals = new long[3];
+
+        // The first connection learns which chunks the receiver already holds before any data moves
+        ChunkStream first = openStream(address, transferId, fileName, fileSize, metadata, tags, compress);
+        for (int index = 0; index < chunkCount; index++) {
+            if (first.presentChunks.contains(index)) {
+                acknowledged.add(index);
+                bytesSent.addAndGet(chunkLength(index, fileSize));
+            } else {
+                pendingChunks.add(index);
+            }
+        }
+        if (!acknowledged.isEmpty()) {
+            databaseManager.logActivity(deviceManager.getUserUUID(), String.format("Resuming transfer of %s: %d/%d chunks already on peer",
+                    fileName, acknowledged.size(), chunkCount));
+        }
+
+        int streams = striped ? Math.max(MIN_STREAMS, Math.min(stripeCount, pendingChunks.size())) : 1;
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            boolean reuseFirst = i == 0;
+            tasks.add(stripeExecutor.submit(() -> {
+                ChunkStream stream = reuseFirst ? first : openStream(address, transferId, fileName, fileSize, metadata, tags, compress);
+                sendStream(stream, file, fileName, pendingChunks, failures, acknowledged, bytesSent, flow, compress, compressionTotals, progressBar);
+                return null;
+            }));
+        }
+        IOException lastError = null;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                tasks.forEach(t -> t.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Chunked transfer interrupted");
+            } catch (ExecutionException e) {
+                lastError = new IOException("Stream failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        if (acknowledged.size() < chunkCount) {
+            throw lastError != null ? lastError : new IOException("Chunked transfer incomplete: " + acknowledged.size() + "/" + chunkCount + " chunks");
+        }
+
+        if (compress) {
+            databaseManager.logActivity(deviceManager.getUserUUID(), "Compression for " + fileName + ": "
+                    + BlockCompressor.summary(compressionTotals[0], compressionTotals[1], compressionTotals[2], System.currentTimeMillis() - startTime));
+        }
+        if (striped) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            adaptStripeCount(streams, fileSize * 1000.0 / elapsed);
+            databaseManager.logActivity(deviceManager.getUserUUID(), String.format("Striped transfer of %s over %d streams at %.1f MB/s",
+                    fileName, streams, fileSize * 1000.0 / elapsed / (1024 * 1024)));
+        }
+    }
+
+    // Stable across retries and restarts so the receiver can match the transfer to its manifest
+    private String transferIdFor(File file, String address) {
+        String key = address + "|" + file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static long chunkLength(int index, long fileSize) {
+        return Math.min(CHUNK_SIZE, fileSize - (long) index * CHUNK_SIZE);
+    }
+
+    private ChunkStream openStream(String address, String transferId, String fileName, long fileSize, String metadata, String tags, boolean compress) throws IOException {
+        var socket = securityManager.createSSLSocket(address, PORT);
+        try {
+            long handshakeStart = System.nanoTime();
+            socket.startHandshake();
+            handshakeTime.recordSince(handshakeStart);
+            var dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            var dis = new DataInputStream(socket.getInputStream());
+            dos.writeUTF(deviceManager.getUserUUID());
+            dos.writeUTF(compress ? "FILE_CHUNKS_Z" : "FILE_CHUNKS");
+            dos.writeUTF(transferId);
+            dos.writeUTF(fileName);
+            dos.writeLong(fileSize);
+            dos.writeInt(CHUNK_SIZE);
+            dos.writeUTF(metadata);
+            dos.writeUTF(tags);
+            dos.flush();
+            int presentCount = dis.readInt();
+            Set<Integer> presentChunks = new HashSet<>();
+            for (int i = 0; i < presentCount; i++) {
+                presentChunks.add(dis.readInt());
+            }
+            return new ChunkStream(socket, dis, dos, presentChunks);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void sendStream(ChunkStream stream, File file, String fileName, Queue<Integer> pendingChunks,
+                            Map<Integer, Integer> failures, Set<Integer> acknowledged,
+                            AtomicLong bytesSent, BandwidthScheduler.Flow flow, boolean compress, long[] compressionTotals,
+                            ProgressBar progressBar) throws Exception {
+        long fileSize = file.length();
+        try (stream;
+             var inChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             var compressor = new BlockCompressor(fileName, compress)) {
+            MessageDigest digest = DigestService.sha256();
+            ByteBuffer buffer = chunkBufferPool.acquire();
+            try {
+                Integer index;
+                while ((index = pendingChunks.poll()) != null) {
+                    boolean acked = false;
+                    long length = chunkLength(index, fileSize);
+                    long chunkSent = 0;
+                    try {
+                        stream.dos.writeInt(index);
+                        stream.dos.writeInt((int) length);
+                        digest.reset();
+                        long position = (long) index * CHUNK_SIZE;
+                        long end = position + length;
+                        while (position < end) {
+                            buffer.clear();
+                            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                            int read = inChannel.read(buffer, position);
+                            if (read == -1) throw new IOException("File truncated during chunked transfer");
+                            digest.update(buffer.array(), 0, read);
+                            if (compress) {
+                                compressor.writeBlock(stream.dos, buffer.array(), read);
+                            } else {
+                                stream.dos.write(buffer.array(), 0, read);
+                            }
+                            position += read;
+                            chunkSent += read;
+                            long sent = bytesSent.addAndGet(read);
+                            transferBytesSent.add(read);
+                            fileTransferManager.updateProgress(fileName, sent, fileSize, progressBar);
+                            flow.acquire(read);
+                        }
+                        stream.dos.writeUTF(securityManager.bytesToHex(digest.digest()));
+                        stream.dos.flush();
+                        acked = stream.dis.readBoolean();
+                    } finally {
+                        if (acked) {
+                            acknowledged.add(index);
+                        } else {
+                            bytesSent.addAndGet(-chunkSent);
+                            if (failures.merge(index, 1, Integer::sum) <= MAX_CHUNK_FAILURES) {
+                                pendingChunks.add(index);
+                            }
+                        }
+                    }
+                }
+                stream.dos.writeInt(-1);
+                stream.dos.flush();
+                // Wait for the receiver to finalize before closing, so the last stream never races the rename
+                stream.dis.readBoolean();
+            } finally {
+                chunkBufferPool.release(buffer);
+                synchronized (compressionTotals) {
+                    compressionTotals[0] += compressor.getRawBytes();
+                    compressionTotals[1] += compressor.getWireBytes();
+                    compressionTotals[2] += compressor.getCpuNanos();
+                }
+            }
+        }
+    }
+
+    private void receiveChunks(String uuid, DataInputStream dis, DataOutputStream dos, boolean compressed) throws IOException {
+        if (databaseManager.isFileBlocked(uuid)) return;
+        String transferId = dis.readUTF();
+        String fileName = new File(dis.readUTF()).getName();
+        long fileSize = dis.readLong();
+        int chunkSize = dis.readInt();
+        String metadata = dis.readUTF();
+        String tags = dis.readUTF();
+        // Both ends share CHUNK_SIZE; anything else is a broken or hostile header
+        if (chunkSize != CHUNK_SIZE || fileSize < 0) throw new IOException("Invalid chunk header for " + fileName);
+
+        ChunkedReceive receive = attachReceive(transferId, uuid, fileName, fileSize, chunkSize, metadata, tags);
+        try {
+            receiveChunks(transferId, receive, fileName, fileSize, chunkSize, compressed, dis, dos);
+        } finally {
+            receive.detach();
+        }
+    }
+
+    // A receive the sweeper closed between lookup and attach is dropped from the map and opened again
+    private ChunkedReceive attachReceive(String transferId, String peer, String fileName, long fileSize, int chunkSize, String metadata, String tags) throws IOException {
+        while (true) {
+            ChunkedReceive receive;
+            try {
+                receive = activeReceives.computeIfAbsent(transferId, id -> {
+                    try {
+                        return openReceive(id, peer, fileName, fileSize, chunkSize, metadata, tags);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (receive.attach()) return receive;
+            activeReceives.remove(transferId, receive);
+        }
+    }
+
+    private void receiveChunks(String transferId, ChunkedReceive receive, String fileName, long fileSize, int chunkSize,
+                               boolean compressed, DataInputStream dis, DataOutputStream dos) throws IOException {
+        // Tell the sender which chunks survived earlier attempts so only the missing ones move
+        List<Integer> present = new ArrayList<>(receive.verifiedChunks);
+        dos.writeInt(present.size());
+        for (int index : present) {
+            dos.writeInt(index);
+        }
+        dos.flush();
+
+        MessageDigest digest = DigestService.sha256();
+        ByteBuffer buffer = chunkBufferPool.acquire();
+        try (var decompressor = new BlockDecompressor()) {
+            while (true) {
+                int index = dis.readInt();
+                if (index < 0) break;
+                int length = dis.readInt();
+                long position = (long) index * chunkSize;
+                if (index >= receive.chunkCount || length != Math.min(chunkSize, fileSize - position)) {
+                    throw new IOException("Chunk out of bounds: " + index);
+                }
+                digest.reset();
+                long end = position + length;
+                while (position < end) {
+                    int read = compressed
+                            ? decompressor.readBlock(dis, buffer.array())
+                            : dis.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end - position));
+                    if (read == -1 || (compressed && read == 0)) throw new EOFException("Stream closed mid-chunk");
+                    if (read > end - position) throw new IOException("Block overruns chunk " + index);
+                    transferBytesReceived.add(read);
+                    digest.update(buffer.array(), 0, read);
+                    buffer.clear();
+                    buffer.limit(read);
+                    // Positional writes let every stream fill its own chunks of the preallocated file
+                    while (buffer.hasRemaining()) {
+                        position += receive.channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+                String chunkHash = dis.readUTF();
+                boolean valid = securityManager.bytesToHex(digest.digest()).equals(chunkHash);
+                if (valid) {
+                    // Data must be on disk before the manifest claims the chunk
+                    receive.channel.force(false);
+                    databaseManager.logVerifiedChunk(transferId, index, chunkHash);
+                    receive.verifiedChunks.add(index);
+                    fileTransferManager.updateProgress(fileName, Math.min(fileSize, (long) receive.verifiedChunks.size() * chunkSize), fileSize, null);
+                } else {
+                    databaseManager.logActivity(deviceManager.getUserUUID(), "Chunk " + index + " of " + fileName + " failed verification");
+                }
+                dos.writeBoolean(valid);
+                dos.flush();
+            }
+            if (receive.isComplete()) {
+                finishReceive(transferId, receive);
+            }
+            dos.writeBoolean(receive.isComplete());
+            dos.flush();
+        } finally {
+            chunkBufferPool.release(buffer);
+        }
+    }
+
+    private ChunkedReceive openReceive(String transferId, String peer, String fileName, long fileSize, int chunkSize, String metadata, String tags) throws IOException {
+        File saveDir = new File(fileTransferManager.getSavePath());
+        if (!saveDir.exists()) saveDir.mkdirs();
+        String partPath = databaseManager.getPartialTransferPath(transferId, fileSize, chunkSize);
+        File partFile = partPath != null ? new File(partPath) : null;
+        Set<Integer> verifiedChunks = ConcurrentHashMap.newKeySet();
+        if (partFile != null && partFile.exists() && partFile.length() == fileSize) {
+            verifiedChunks.addAll(databaseManager.getVerifiedChunks(transferId));
+        } else {
+            databaseManager.removePartialTransfer(transferId);
+            partFile = new File(saveDir, fileName + "." + transferId.substring(0, 8) + ".part");
+            try (var raf = new RandomAccessFile(partFile, "rw")) {
+                raf.setLength(fileSize);
+            }
+            databaseManager.savePartialTransfer(transferId, fileName, fileSize, chunkSize, partFile.getAbsolutePath());
+        }
+        return new ChunkedReceive(peer, fileName, fileSize, chunkSize, metadata, tags, partFile, verifiedChunks);
+    }
+
+    private void closeIdleReceives() {
+        long now = System.currentTimeMillis();
+        activeReceives.forEach((transferId, receive) -> {
+            if (receive.closeIfIdle(now)) {
+                activeReceives.remove(transferId, receive);
+                databaseManager.logActivity(deviceManager.getUserUUID(), "Closed idle chunked receive of " + receive.fileName);
+            }
+        });
+    }
+
+    private void finishReceive(String transferId, ChunkedReceive receive) throws IOException {
+        synchronized (receive) {
+            if (receive.finished) return;
+            receive.finished = true;
+        }
+        activeReceives.remove(transferId);
+        receive.channel.force(false);
+        receive.channel.close();
+
+        File saveDir = new File(fileTransferManager.getSavePath());
+        File outputFile = new File(saveDir, receive.fileName);
+        if (outputFile.exists()) {
+            String versionedName = receive.fileName + ".v" + System.currentTimeMillis();
+            Files.copy(outputFile.toPath(), new File(saveDir, versionedName).toPath());
+            databaseManager.logFileVersion(receive.fileName, versionedName, outputFile.length(), "");
+        }
+        Files.move(receive.partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        databaseManager.removePartialTransfer(transferId);
+
+        databaseManager.logTransfer(receive.fileName, "수신", receive.fileSize, receive.metadata, receive.peer);
+        databaseManager.logTags(receive.fileName, receive.tags);
+        databaseManager.logDownload(receive.fileName, receive.metadata);
+        databaseManager.logActivity(deviceManager.getUserUUID(), "File received (chunked): " + receive.fileName);
+        fileTransferManager.getPendingNotifications().merge(receive.fileName, 1, Integer::sum);
+        fileTransferManager.getTransferProgress().remove(receive.fileName);
+        Platform.runLater(() -> notify(getResourceString("file_received") + receive.fileName));
+    }
+
+    private static synchronized void adaptStripeCount(int streamsUsed, double bytesPerSecond) {
+        // Hill-climb on measured throughput: keep moving while it helps, turn around when it hurts
+        if (lastStripeThroughput > 0 && bytesPerSecond < lastStripeThroughput * 0.9) {
+            stripeDirection = -stripeDirection;
+        } else if (lastStripeThroughput > 0 && bytesPerSecond < lastStripeThroughput * 1.1) {
+            lastStripeThroughput = bytesPerSecond;
+            return;
+        }
+        stripeCount = Math.max(MIN_STREAMS, Math.min(MAX_STREAMS, streamsUsed + stripeDirection));
+        lastStripeThroughput = bytesPerSecond;
+    }
+
+    public static int getStripeCount() {
+        return stripeCount;
+    }
+
+    private String getResourceString(String key) {
+        return ResourceBundle.getBundle("messages", Locale.getDefault()).getString(key);
+    }
+
+    private void notify(String message) {
+        Platform.runLater(() -> System.out.println(message));
+    }
+
+    private static class ChunkStream implements Closeable {
+        private final Socket socket;
+        private final DataInputStream dis;
+        private final DataOutputStream dos;
+        private final Set<Integer> presentChunks;
+
+        ChunkStream(Socket socket, DataInputStream dis, DataOutputStream dos, Set<Integer> presentChunks) {
+            this.socket = socket;
+            this.dis = dis;
+            this.dos = dos;
+            this.presentChunks = presentChunks;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static class ChunkedReceive {
+        private final String peer;
+        private final String fileName;
+        private final long fileSize;
+        private final int chunkCount;
+        private final String metadata;
+        private final String tags;
+        private final File partFile;
+        private final FileChannel channel;
+        private final Set<Integer> verifiedChunks;
+        private boolean finished = false;
+        private boolean closed = false;
+        private int streams = 0;
+        private long lastActive = System.currentTimeMillis();
+
+        ChunkedReceive(String peer, String fileName, long fileSize, int chunkSize, String metadata, String tags, File partFile, Set<Integer> verifiedChunks) throws IOException {
+            this.peer = peer;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+            this.metadata = metadata;
+            this.tags = tags;
+            this.partFile = partFile;
+            this.verifiedChunks = verifiedChunks;
+            this.channel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE);
+        }
+
+        boolean isComplete() {
+            return verifiedChunks.size() >= chunkCount;
+        }
+
+        synchronized boolean attach() {
+            if (closed) return false;
+            streams++;
+            lastActive = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized void detach() {
+            streams--;
+            lastActive = System.currentTimeMillis();
+        }
+
+        synchronized boolean closeIfIdle(long now) {
+            if (closed || finished || streams > 0 || now - lastActive < RECEIVE_IDLE_TIMEOUT_MS) return false;
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to flush; the manifest only lists chunks that were forced to disk
+            }
+            return true;
+        }
+    }
+}
\ No newline at end of file
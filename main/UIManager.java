@@ -14,8 +14,8 @@ import javafx.scene.layout.*;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import java.io.File;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 
 public class UIManager {
@@ -302,33 +302,48 @@ public class UIManager {
 
     private void showActivityLog() {
         ListView<String> logView = new ListView<>();
-        try (var conn = databaseManager.getActivityConnection()) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM activities");
-            while (rs.next()) {
-                logView.getItems().add(String.format("%s: %s at %s",
-                        rs.getString("uuid"), rs.getString("action"), rs.getString("timestamp")));
-            }
-        } catch (SQLException e) {
-            notify("Activity log error: " + e.getMessage());
-        }
+        LogPager pager = databaseManager.activityPager();
+        TextField uuidFilter = new TextField();
+        uuidFilter.setPromptText(getResourceString("filter_uuid"));
+        TextField actionFilter = new TextField();
+        actionFilter.setPromptText(getResourceString("filter_action"));
+        DatePicker fromDate = new DatePicker();
+        fromDate.setPromptText(getResourceString("filter_from"));
+        DatePicker toDate = new DatePicker();
+        toDate.setPromptText(getResourceString("filter_to"));
+        Button applyFilter = new Button(getResourceString("apply_filter"));
+        applyFilter.setOnAction(e -> {
+            pager.clearFilters()
+                    .whereEquals("uuid", uuidFilter.getText().trim())
+                    .whereContains("action", actionFilter.getText().trim())
+                    .whereBetween(startOfDay(fromDate.getValue()), startOfDay(toDate.getValue() == null ? null : toDate.getValue().plusDays(1)));
+            pager.reload();
+        });
+        pager.attach(logView, rs -> String.format("%s: %s at %s",
+                rs.getString("uuid"), rs.getString("action"), DatabaseManager.formatTimestamp(rs.getLong("timestamp"))));
+        HBox filterBar = new HBox(5, uuidFilter, actionFilter, fromDate, toDate, applyFilter);
         Stage logStage = new Stage();
         logStage.setTitle(getResourceString("activity_log"));
-        logStage.setScene(new Scene(new VBox(new Label(getResourceString("activity_log")), logView), 400, 300));
+        logStage.setScene(new Scene(new VBox(new Label(getResourceString("activity_log")), filterBar, logView), 700, 400));
         logStage.show();
     }
 
+    private Long startOfDay(LocalDate date) {
+        return date == null ? null : date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
     private void showFileVersions() {
         ListView<String> versionView = new ListView<>();
-        try (var conn = databaseManager.getVersionConnection()) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM versions");
-            while (rs.next()) {
-                versionView.getItems().add(String.format("%s (Version: %s, Size: %d, Hash: %s) at %s",
-                        rs.getString("file_name"), rs.getString("version_name"), rs.getLong("size"),
-                        rs.getString("hash"), rs.getString("timestamp")));
-            }
-        } catch (SQLException e) {
-            notify("File version error: " + e.getMessage());
-        }
+        LogPager pager = databaseManager.versionPager();
+        TextField fileFilter = new TextField();
+        fileFilter.setPromptText(getResourceString("filter_file"));
+        fileFilter.setOnAction(e -> {
+            pager.clearFilters().whereContains("file_name", fileFilter.getText().trim());
+            pager.reload();
+        });
+        pager.attach(versionView, rs -> String.format("%s (Version: %s, Size: %d, Hash: %s) at %s",
+                rs.getString("file_name"), rs.getString("version_name"), rs.getLong("size"),
+                rs.getString("hash"), DatabaseManager.formatTimestamp(rs.getLong("timestamp"))));
         versionView.setOnMouseClicked(event -> {
             if (event.getClickCount() == 2) {
                 String selected = versionView.getSelectionModel().getSelectedItem();
@@ -340,7 +355,7 @@ public class UIManager {
         });
         Stage versionStage = new Stage();
         versionStage.setTitle(getResourceString("view_file_versions"));
-        versionStage.setScene(new Scene(new VBox(new Label(getResourceString("file_versions")), versionView), 600, 400));
+        versionStage.setScene(new Scene(new VBox(new Label(getResourceString("file_versions")), fileFilter, versionView), 600, 400));
         versionStage.show();
     }
 